@@ -108,9 +108,14 @@ public class ImageDisplay extends ResourceDisplay {
 					out.begin(IMG);
 					out.attr(CLASS_ATTR, CssClasses.IMAGE_DISPLAY);
 					out.attr(ID_ATTR, "image");
-					out.attr(STYLE_ATTR, "transform-origin: top left; transform: " + txInfo.getTransform() + ";");
+					// The image size is fixed to the size of the original, since the transformation is computed in
+					// image pixels. Otherwise, the browser would size the image according to the chosen source.
+					out.attr(STYLE_ATTR, "width: " + txInfo.getRawWidth() + "px; height: " + txInfo.getRawHeight()
+						+ "px; transform-origin: top left; transform: " + txInfo.getTransform() + ";");
 					out.attr(DRAGGABLE_ATTR, "false");
 					out.attr(SRC_ATTR, imagePart.getName());
+					out.attr(SRCSET_ATTR, RenderUtil.previewSrcSet(imagePart, true));
+					out.attr(SIZES_ATTR, (int) Math.ceil(txInfo.getRawWidth() * txInfo.getScale()) + "px");
 					out.endEmpty();
 					
 					setTxInfo(out.getLast(), txInfo);
@@ -447,6 +452,11 @@ public class ImageDisplay extends ResourceDisplay {
 	}
 
 	private void updateTransform(HTMLElement image, TXInfo tx) {
+		if (tx.getScale() > tx.getOrigScale()) {
+			// When zooming in, the preview chosen for the initial display size is no longer sufficient, switch to the
+			// original.
+			image.removeAttribute(SRCSET_ATTR);
+		}
 		image.style.transform = tx.getTransform();
 	}
 	
@@ -7,6 +7,8 @@ import static de.haumacher.util.html.HTML.*;
 
 import java.io.IOException;
 
+import com.google.gwt.user.client.Timer;
+
 import de.haumacher.imageServer.client.app.App;
 import de.haumacher.imageServer.shared.model.AbstractImage;
 import de.haumacher.imageServer.shared.model.ImagePart;
@@ -16,12 +18,25 @@ import de.haumacher.imageServer.shared.util.Orientations;
 import de.haumacher.imageServer.shared.util.ToImage;
 import de.haumacher.util.gwt.dom.DomBuilder;
 import elemental2.dom.Event;
+import elemental2.dom.HTMLImageElement;
 
 /**
  * Base class for displaying a single image in the context of an {@link AbstractAlbumDisplay}.
  */
 public class PreviewDisplay extends AbstractDisplay {
 
+	/**
+	 * Maximum number of requests for a preview that is still being created on the server.
+	 */
+	private static final int MAX_RETRIES = 10;
+
+	/**
+	 * Delay in milliseconds before the first retry, increased with each retry.
+	 */
+	private static final int RETRY_DELAY = 500;
+
+	private static final int MAX_RETRY_DELAY = 3000;
+
 	private AbstractImage _part;
 	private final ImagePart _image;
 	private final double _width;
@@ -29,6 +44,7 @@ public class PreviewDisplay extends AbstractDisplay {
 	private final int _marginLeft;
 	private boolean _orientationChanged;
 	private Orientation _origOrientation;
+	private int _retries;
 
 	/** 
 	 * Creates a {@link PreviewDisplay}.
@@ -150,6 +166,31 @@ public class PreviewDisplay extends AbstractDisplay {
 					}
 					
 					out.append("width: " + imgWidth + "px; height: " + imgHeight + "px;");
+					
+					String color = _image.getColor();
+					if (!color.isEmpty()) {
+						out.append("background-color: " + color + ";");
+					}
+					if (!ImageDisplay.isVideo(_image.getKind())) {
+						// The embedded thumbnail is shown until the preview is loaded, the placeholder until the
+						// thumbnail is loaded. Thumbnails often have a different aspect ratio, e.g. 4:3 for a 3:2
+						// photo, and are cropped instead of stretched.
+						boolean micro = _image.isThumbnail();
+						String placeholder = RenderUtil.placeholderUrl(_image);
+						if (micro || placeholder != null) {
+							out.append("background-image: ");
+							if (micro) {
+								out.append("url(\"" + _image.getName() + "?type=micro\")");
+								if (placeholder != null) {
+									out.append(", ");
+								}
+							}
+							if (placeholder != null) {
+								out.append("url(\"" + placeholder + "\")");
+							}
+							out.append("; background-size: cover;");
+						}
+					}
 					out.append("transform-origin: top left; transform: ");
 					out.append(Orientations.cssTransform(orientation, imgWidth, imgHeight, scale));
 					out.append(";");
@@ -161,11 +202,17 @@ public class PreviewDisplay extends AbstractDisplay {
 						out.append("?type=tn");
 						out.closeAttr();
 						
+						out.attr(SRCSET_ATTR, RenderUtil.previewSrcSet(_image, false));
+						out.attr(SIZES_ATTR, (int) Math.ceil(imgWidth) + "px");
+						
 						out.attr(WIDTH_ATTR, imgWidth);
 						out.attr(HEIGHT_ATTR, imgHeight);
 					}
 					out.end();
 					
+					HTMLImageElement img = out.getLast();
+					img.addEventListener("load", event -> onPreviewLoaded(img));
+					
 					if (wrapImage) {
 						out.end();
 					}
@@ -192,6 +239,26 @@ public class PreviewDisplay extends AbstractDisplay {
 		out.end();
 	}
 
+	/**
+	 * Requests the preview again, if the server delivered a placeholder, because the preview is still being created.
+	 */
+	private void onPreviewLoaded(HTMLImageElement img) {
+		if (img.naturalWidth > 1 || _retries >= MAX_RETRIES) {
+			return;
+		}
+		
+		int retry = ++_retries;
+		new Timer() {
+			@Override
+			public void run() {
+				// A modified URL, since the browser may keep the placeholder for the original one.
+				String params = "&retry=" + retry;
+				img.srcset = RenderUtil.previewSrcSet(_image, false, params);
+				img.src = _image.getName() + "?type=tn" + params;
+			}
+		}.schedule(Math.min(retry * RETRY_DELAY, MAX_RETRY_DELAY));
+	}
+
 	protected void renderToolbar(UIContext context, DomBuilder out) throws IOException {
 		// Hook for sub-classes.
 	}
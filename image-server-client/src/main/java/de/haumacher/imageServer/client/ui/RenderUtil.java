@@ -6,7 +6,12 @@ package de.haumacher.imageServer.client.ui;
 import static de.haumacher.util.html.HTML.*;
 
 import java.io.IOException;
+import java.util.List;
 
+import de.haumacher.imageServer.shared.model.AlbumInfo;
+import de.haumacher.imageServer.shared.model.ImagePart;
+import de.haumacher.imageServer.shared.ui.Settings;
+import de.haumacher.imageServer.shared.util.BlurHash;
 import de.haumacher.util.xml.XmlAppendable;
 
 /**
@@ -16,12 +21,186 @@ import de.haumacher.util.xml.XmlAppendable;
  */
 public class RenderUtil {
 
+	/**
+	 * Size in pixels of the longer side of a rendered {@link #placeholderUrl(ImagePart) placeholder}.
+	 */
+	private static final int PLACEHOLDER_SIZE = 8;
+
+	private static final String BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+
 	public static void icon(XmlAppendable out, String cssClass) throws IOException {
 		out.begin(I);
 		out.attr(CLASS_ATTR, cssClass);
 		out.end();
 	}
 
+	/**
+	 * Creates the value of a <code>srcset</code> attribute offering all preview sizes of the given image.
+	 * 
+	 * <p>
+	 * Together with a <code>sizes</code> attribute describing the display width, the browser chooses the smallest
+	 * preview that covers the displayed size at the device pixel ratio of the screen.
+	 * </p>
+	 *
+	 * @param image
+	 *        The image to display.
+	 * @param original
+	 *        Whether the original image should be offered as the largest candidate. Otherwise, the largest preview is
+	 *        limited to the original size by the server.
+	 */
+	public static String previewSrcSet(ImagePart image, boolean original) {
+		return previewSrcSet(image, original, "");
+	}
+
+	/**
+	 * Creates the value of a <code>srcset</code> attribute offering all preview sizes of the given image.
+	 * 
+	 * @param params
+	 *        Additional URL parameters appended to each preview URL, e.g. <code>&amp;retry=1</code>.
+	 * @see #previewSrcSet(ImagePart, boolean)
+	 */
+	public static String previewSrcSet(ImagePart image, boolean original, String params) {
+		String name = image.getName();
+		int width = image.getWidth();
+		int height = image.getHeight();
+		
+		StringBuilder result = new StringBuilder();
+		for (int previewHeight : previewHeights(image)) {
+			boolean last = previewHeight >= height;
+			if (last && original) {
+				break;
+			}
+			
+			if (result.length() > 0) {
+				result.append(", ");
+			}
+			int previewWidth = last ? width : (int) Math.round(((double) previewHeight) * width / height);
+			result.append(name).append("?type=tn&h=").append(previewHeight).append(params).append(' ').append(previewWidth).append('w');
+			
+			if (last) {
+				break;
+			}
+		}
+		if (original) {
+			if (result.length() > 0) {
+				result.append(", ");
+			}
+			result.append(name).append(' ').append(width).append('w');
+		}
+		return result.toString();
+	}
+
+	/**
+	 * The ladder of preview heights the server offers for the given image.
+	 * 
+	 * <p>
+	 * The server rounds a requested height up to its configured ladder. The <code>srcset</code> width descriptors are
+	 * only correct, if the client requests heights from the same ladder.
+	 * </p>
+	 */
+	private static int[] previewHeights(ImagePart image) {
+		AlbumInfo album = image.getOwner();
+		if (album == null || album.getPreviewHeights().isEmpty()) {
+			// Served by an older server.
+			return Settings.PREVIEW_HEIGHTS;
+		}
+		List<Integer> heights = album.getPreviewHeights();
+		int[] result = new int[heights.size()];
+		for (int n = 0; n < result.length; n++) {
+			result[n] = heights.get(n).intValue();
+		}
+		return result;
+	}
+
+	/**
+	 * Creates a <code>data:</code> URL of a tiny image rendered from the {@link ImagePart#getBlurHash() BlurHash} of
+	 * the given image.
+	 * 
+	 * <p>
+	 * Scaled to the display size by the browser, the image is a blurred approximation of the given image that can be
+	 * shown until its preview is loaded.
+	 * </p>
+	 *
+	 * @return The URL, or <code>null</code>, if the given image has no placeholder.
+	 */
+	public static String placeholderUrl(ImagePart image) {
+		String blurHash = image.getBlurHash();
+		if (blurHash.isEmpty() || image.getWidth() <= 0 || image.getHeight() <= 0) {
+			return null;
+		}
+		
+		int width, height;
+		if (image.getWidth() >= image.getHeight()) {
+			width = PLACEHOLDER_SIZE;
+			height = Math.max(1, (int) Math.round(((double) PLACEHOLDER_SIZE) * image.getHeight() / image.getWidth()));
+		} else {
+			height = PLACEHOLDER_SIZE;
+			width = Math.max(1, (int) Math.round(((double) PLACEHOLDER_SIZE) * image.getWidth() / image.getHeight()));
+		}
+		
+		int[] pixels;
+		try {
+			pixels = BlurHash.decode(blurHash, width, height);
+		} catch (IllegalArgumentException ex) {
+			return null;
+		}
+		return "data:image/bmp;base64," + base64(bmp(pixels, width, height));
+	}
+
+	/**
+	 * Encodes the given pixels as uncompressed 24 bit BMP image.
+	 */
+	private static byte[] bmp(int[] pixels, int width, int height) {
+		int rowSize = (3 * width + 3) & ~3;
+		int headerSize = 14 + 40;
+		int size = headerSize + rowSize * height;
+		
+		byte[] result = new byte[size];
+		result[0] = 'B';
+		result[1] = 'M';
+		putInt(result, 2, size);
+		putInt(result, 10, headerSize);
+		putInt(result, 14, 40);
+		putInt(result, 18, width);
+		putInt(result, 22, height);
+		result[26] = 1;
+		result[28] = 24;
+		putInt(result, 34, rowSize * height);
+		
+		// Rows are stored bottom-up, pixels as BGR.
+		for (int y = 0; y < height; y++) {
+			int offset = headerSize + (height - 1 - y) * rowSize;
+			for (int x = 0; x < width; x++) {
+				int rgb = pixels[y * width + x];
+				result[offset++] = (byte) rgb;
+				result[offset++] = (byte) (rgb >> 8);
+				result[offset++] = (byte) (rgb >> 16);
+			}
+		}
+		return result;
+	}
+
+	private static void putInt(byte[] buffer, int offset, int value) {
+		buffer[offset] = (byte) value;
+		buffer[offset + 1] = (byte) (value >> 8);
+		buffer[offset + 2] = (byte) (value >> 16);
+		buffer[offset + 3] = (byte) (value >> 24);
+	}
+
+	private static String base64(byte[] data) {
+		StringBuilder result = new StringBuilder((data.length + 2) / 3 * 4);
+		for (int n = 0; n < data.length; n += 3) {
+			int b0 = data[n] & 0xFF;
+			int b1 = n + 1 < data.length ? data[n + 1] & 0xFF : 0;
+			int b2 = n + 2 < data.length ? data[n + 2] & 0xFF : 0;
+			result.append(BASE64.charAt(b0 >> 2));
+			result.append(BASE64.charAt(((b0 << 4) | (b1 >> 4)) & 0x3F));
+			result.append(n + 1 < data.length ? BASE64.charAt(((b1 << 2) | (b2 >> 6)) & 0x3F) : '=');
+			result.append(n + 2 < data.length ? BASE64.charAt(b2 & 0x3F) : '=');
+		}
+		return result.toString();
+	}
+
 	public static String parentUrl(String path) {
 		int slashIndex = path.endsWith("/") ? path.lastIndexOf('/', path.length() - 2) : path.lastIndexOf('/');
 		if (slashIndex < 0) {
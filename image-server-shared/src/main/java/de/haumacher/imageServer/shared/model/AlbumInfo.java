@@ -27,6 +27,9 @@ public class AlbumInfo extends FolderResource {
 	/** @see #getParts() */
 	private static final String PARTS__PROP = "parts";
 
+	/** @see #getPreviewHeights() */
+	private static final String PREVIEW_HEIGHTS__PROP = "previewHeights";
+
 	private String _title = "";
 
 	private String _subTitle = "";
@@ -35,6 +38,8 @@ public class AlbumInfo extends FolderResource {
 
 	private final java.util.List<de.haumacher.imageServer.shared.model.AlbumPart> _parts = new java.util.ArrayList<>();
 
+	private final java.util.List<Integer> _previewHeights = new java.util.ArrayList<>();
+
 	private transient final java.util.Map<String, de.haumacher.imageServer.shared.model.ImagePart> _imageByName = new java.util.HashMap<>();
 
 	private transient int _minRating = 0;
@@ -162,6 +167,48 @@ public class AlbumInfo extends FolderResource {
 		_parts.remove(value);
 	}
 
+	/**
+	 * The ladder of preview heights in pixels the server creates previews of the images in this album with.
+	 */
+	public final java.util.List<Integer> getPreviewHeights() {
+		return _previewHeights;
+	}
+
+	/**
+	 * @see #getPreviewHeights()
+	 */
+	public de.haumacher.imageServer.shared.model.AlbumInfo setPreviewHeights(java.util.List<? extends Integer> value) {
+		internalSetPreviewHeights(value);
+		return this;
+	}
+
+	/** Internal setter for {@link #getPreviewHeights()} without chain call utility. */
+	protected final void internalSetPreviewHeights(java.util.List<? extends Integer> value) {
+		if (value == null) throw new IllegalArgumentException("Property 'previewHeights' cannot be null.");
+		_previewHeights.clear();
+		_previewHeights.addAll(value);
+	}
+
+	/**
+	 * Adds a value to the {@link #getPreviewHeights()} list.
+	 */
+	public de.haumacher.imageServer.shared.model.AlbumInfo addPreviewHeight(int value) {
+		internalAddPreviewHeight(value);
+		return this;
+	}
+
+	/** Implementation of {@link #addPreviewHeight(int)} without chain call utility. */
+	protected final void internalAddPreviewHeight(int value) {
+		_previewHeights.add(value);
+	}
+
+	/**
+	 * Removes a value from the {@link #getPreviewHeights()} list.
+	 */
+	public final void removePreviewHeight(int value) {
+		_previewHeights.remove(Integer.valueOf(value));
+	}
+
 	/**
 	 * All {@link ImagePart}s indexed by their {@link ImagePart#getName()}.
 	 */
@@ -264,6 +311,12 @@ public class AlbumInfo extends FolderResource {
 			x.writeTo(out);
 		}
 		out.endArray();
+		out.name(PREVIEW_HEIGHTS__PROP);
+		out.beginArray();
+		for (int x : getPreviewHeights()) {
+			out.value(x);
+		}
+		out.endArray();
 	}
 
 	@Override
@@ -280,6 +333,14 @@ public class AlbumInfo extends FolderResource {
 				in.endArray();
 			}
 			break;
+			case PREVIEW_HEIGHTS__PROP: {
+				in.beginArray();
+				while (in.hasNext()) {
+					addPreviewHeight(in.nextInt());
+				}
+				in.endArray();
+			}
+			break;
 			default: super.readField(in, field);
 		}
 	}
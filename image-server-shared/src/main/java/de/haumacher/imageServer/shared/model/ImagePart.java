@@ -42,6 +42,15 @@ public class ImagePart extends AbstractImage {
 	/** @see #getComment() */
 	private static final String COMMENT__PROP = "comment";
 
+	/** @see #getBlurHash() */
+	private static final String BLUR_HASH__PROP = "blurHash";
+
+	/** @see #getColor() */
+	private static final String COLOR__PROP = "color";
+
+	/** @see #isThumbnail() */
+	private static final String THUMBNAIL__PROP = "thumbnail";
+
 	private de.haumacher.imageServer.shared.model.ImageKind _kind = de.haumacher.imageServer.shared.model.ImageKind.IMAGE;
 
 	private String _name = "";
@@ -60,6 +69,12 @@ public class ImagePart extends AbstractImage {
 
 	private String _comment = "";
 
+	private String _blurHash = "";
+
+	private String _color = "";
+
+	private boolean _thumbnail = false;
+
 	private transient de.haumacher.imageServer.shared.model.ImageGroup _group = null;
 
 	/**
@@ -258,6 +273,66 @@ public class ImagePart extends AbstractImage {
 		_comment = value;
 	}
 
+	/**
+	 * A compact placeholder for the image encoded as BlurHash, empty if not available.
+	 */
+	public final String getBlurHash() {
+		return _blurHash;
+	}
+
+	/**
+	 * @see #getBlurHash()
+	 */
+	public de.haumacher.imageServer.shared.model.ImagePart setBlurHash(String value) {
+		internalSetBlurHash(value);
+		return this;
+	}
+
+	/** Internal setter for {@link #getBlurHash()} without chain call utility. */
+	protected final void internalSetBlurHash(String value) {
+		_blurHash = value;
+	}
+
+	/**
+	 * The dominant color of the image as CSS color, e.g. <code>#336699</code>, empty if not available.
+	 */
+	public final String getColor() {
+		return _color;
+	}
+
+	/**
+	 * @see #getColor()
+	 */
+	public de.haumacher.imageServer.shared.model.ImagePart setColor(String value) {
+		internalSetColor(value);
+		return this;
+	}
+
+	/** Internal setter for {@link #getColor()} without chain call utility. */
+	protected final void internalSetColor(String value) {
+		_color = value;
+	}
+
+	/**
+	 * Whether the image has an embedded thumbnail that can be requested as micro preview.
+	 */
+	public final boolean isThumbnail() {
+		return _thumbnail;
+	}
+
+	/**
+	 * @see #isThumbnail()
+	 */
+	public de.haumacher.imageServer.shared.model.ImagePart setThumbnail(boolean value) {
+		internalSetThumbnail(value);
+		return this;
+	}
+
+	/** Internal setter for {@link #isThumbnail()} without chain call utility. */
+	protected final void internalSetThumbnail(boolean value) {
+		_thumbnail = value;
+	}
+
 	/**
 	 * The {@link ImageGroup}, this {@link ImagePart} is part of, or <code>null</code>, if this {@link ImagePart} is not part of a group.
 	 */
@@ -348,6 +423,12 @@ public class ImagePart extends AbstractImage {
 		out.value(getPrivacy());
 		out.name(COMMENT__PROP);
 		out.value(getComment());
+		out.name(BLUR_HASH__PROP);
+		out.value(getBlurHash());
+		out.name(COLOR__PROP);
+		out.value(getColor());
+		out.name(THUMBNAIL__PROP);
+		out.value(isThumbnail());
 	}
 
 	@Override
@@ -362,6 +443,9 @@ public class ImagePart extends AbstractImage {
 			case RATING__PROP: setRating(in.nextInt()); break;
 			case PRIVACY__PROP: setPrivacy(in.nextInt()); break;
 			case COMMENT__PROP: setComment(de.haumacher.msgbuf.json.JsonUtil.nextStringOptional(in)); break;
+			case BLUR_HASH__PROP: setBlurHash(de.haumacher.msgbuf.json.JsonUtil.nextStringOptional(in)); break;
+			case COLOR__PROP: setColor(de.haumacher.msgbuf.json.JsonUtil.nextStringOptional(in)); break;
+			case THUMBNAIL__PROP: setThumbnail(in.nextBoolean()); break;
 			default: super.readField(in, field);
 		}
 	}
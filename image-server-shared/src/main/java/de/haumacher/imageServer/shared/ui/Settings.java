@@ -12,4 +12,14 @@ public interface Settings {
 
 	public String DATA_PREFIX = "/data";
 
+	/**
+	 * The default ladder of preview heights in pixels.
+	 * 
+	 * <p>
+	 * A preview of a certain height is requested with <code>?type=tn&amp;h=&lt;height&gt;</code>. The server rounds
+	 * the requested height up to the next height in its configured ladder.
+	 * </p>
+	 */
+	public int[] PREVIEW_HEIGHTS = { 240, 480, 960, 1920, 2560 };
+
 }
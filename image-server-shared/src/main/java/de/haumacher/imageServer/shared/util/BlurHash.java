@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2026 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package de.haumacher.imageServer.shared.util;
+
+/**
+ * Encoder and decoder for <a href="https://blurha.sh/">BlurHash</a> image placeholders.
+ *
+ * <p>
+ * A BlurHash describes an image by a few components of its discrete cosine transform in a string of about 30
+ * characters. Decoding it produces a blurred version of the image that can be displayed before the image itself is
+ * loaded.
+ * </p>
+ *
+ * <p>
+ * Pixels are given as <code>0xRRGGBB</code> values in row-major order.
+ * </p>
+ */
+public class BlurHash {
+
+	private static final String DIGITS =
+		"0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz#$%*+,-.:;=?@[]^_{|}~";
+
+	/**
+	 * Maximum number of components in each direction.
+	 */
+	public static final int MAX_COMPONENTS = 9;
+
+	/**
+	 * Computes the BlurHash of the given pixels.
+	 *
+	 * @param pixels
+	 *        The RGB values of the image in row-major order.
+	 * @param width
+	 *        The width of the image.
+	 * @param height
+	 *        The height of the image.
+	 * @param componentsX
+	 *        The number of horizontal components, from 1 to {@link #MAX_COMPONENTS}.
+	 * @param componentsY
+	 *        The number of vertical components, from 1 to {@link #MAX_COMPONENTS}.
+	 */
+	public static String encode(int[] pixels, int width, int height, int componentsX, int componentsY) {
+		if (componentsX < 1 || componentsX > MAX_COMPONENTS || componentsY < 1 || componentsY > MAX_COMPONENTS) {
+			throw new IllegalArgumentException("Components must be between 1 and " + MAX_COMPONENTS + ".");
+		}
+		if (pixels.length < width * height) {
+			throw new IllegalArgumentException("Not enough pixels for a " + width + "x" + height + " image.");
+		}
+
+		double[] linear = new double[3 * width * height];
+		for (int n = 0, cnt = width * height; n < cnt; n++) {
+			int rgb = pixels[n];
+			linear[3 * n] = toLinear((rgb >> 16) & 0xFF);
+			linear[3 * n + 1] = toLinear((rgb >> 8) & 0xFF);
+			linear[3 * n + 2] = toLinear(rgb & 0xFF);
+		}
+
+		double[] factors = new double[3 * componentsX * componentsY];
+		for (int j = 0; j < componentsY; j++) {
+			for (int i = 0; i < componentsX; i++) {
+				double r = 0, g = 0, b = 0;
+				for (int y = 0; y < height; y++) {
+					double basisY = Math.cos(Math.PI * j * y / height);
+					for (int x = 0; x < width; x++) {
+						double basis = Math.cos(Math.PI * i * x / width) * basisY;
+						int offset = 3 * (y * width + x);
+						r += basis * linear[offset];
+						g += basis * linear[offset + 1];
+						b += basis * linear[offset + 2];
+					}
+				}
+				double scale = (i == 0 && j == 0 ? 1.0 : 2.0) / (width * height);
+				int offset = 3 * (j * componentsX + i);
+				factors[offset] = r * scale;
+				factors[offset + 1] = g * scale;
+				factors[offset + 2] = b * scale;
+			}
+		}
+
+		StringBuilder result = new StringBuilder();
+		encode83(result, (componentsX - 1) + (componentsY - 1) * 9, 1);
+
+		double maximumValue;
+		if (factors.length > 3) {
+			double actualMax = 0;
+			for (int n = 3; n < factors.length; n++) {
+				actualMax = Math.max(actualMax, Math.abs(factors[n]));
+			}
+			int quantisedMax = (int) Math.max(0, Math.min(82, Math.floor(actualMax * 166 - 0.5)));
+			maximumValue = (quantisedMax + 1) / 166.0;
+			encode83(result, quantisedMax, 1);
+		} else {
+			maximumValue = 1;
+			encode83(result, 0, 1);
+		}
+
+		encode83(result, (toSRGB(factors[0]) << 16) | (toSRGB(factors[1]) << 8) | toSRGB(factors[2]), 4);
+		for (int n = 3; n < factors.length; n += 3) {
+			int quantR = quantizeAC(factors[n], maximumValue);
+			int quantG = quantizeAC(factors[n + 1], maximumValue);
+			int quantB = quantizeAC(factors[n + 2], maximumValue);
+			encode83(result, quantR * 19 * 19 + quantG * 19 + quantB, 2);
+		}
+		return result.toString();
+	}
+
+	/**
+	 * The average color of the image described by the given BlurHash.
+	 *
+	 * @return The color as <code>0xRRGGBB</code> value.
+	 */
+	public static int averageColor(String hash) {
+		checkLength(hash);
+		return decode83(hash, 2, 6);
+	}
+
+	/**
+	 * Renders the image described by the given BlurHash.
+	 *
+	 * @param hash
+	 *        The BlurHash string.
+	 * @param width
+	 *        The width of the image to create.
+	 * @param height
+	 *        The height of the image to create.
+	 * @return The RGB values of the image in row-major order.
+	 */
+	public static int[] decode(String hash, int width, int height) {
+		int componentsX = checkLength(hash);
+		int componentsY = decode83(hash, 0, 1) / 9 + 1;
+
+		double maximumValue = (decode83(hash, 1, 2) + 1) / 166.0;
+		double[] colors = new double[3 * componentsX * componentsY];
+		int dc = decode83(hash, 2, 6);
+		colors[0] = toLinear((dc >> 16) & 0xFF);
+		colors[1] = toLinear((dc >> 8) & 0xFF);
+		colors[2] = toLinear(dc & 0xFF);
+		for (int n = 1, cnt = componentsX * componentsY; n < cnt; n++) {
+			int ac = decode83(hash, 4 + 2 * n, 6 + 2 * n);
+			colors[3 * n] = signPow(((ac / (19 * 19)) - 9) / 9.0, 2) * maximumValue;
+			colors[3 * n + 1] = signPow((((ac / 19) % 19) - 9) / 9.0, 2) * maximumValue;
+			colors[3 * n + 2] = signPow(((ac % 19) - 9) / 9.0, 2) * maximumValue;
+		}
+
+		int[] result = new int[width * height];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				double r = 0, g = 0, b = 0;
+				for (int j = 0; j < componentsY; j++) {
+					double basisY = Math.cos(Math.PI * y * j / height);
+					for (int i = 0; i < componentsX; i++) {
+						double basis = Math.cos(Math.PI * x * i / width) * basisY;
+						int offset = 3 * (j * componentsX + i);
+						r += colors[offset] * basis;
+						g += colors[offset + 1] * basis;
+						b += colors[offset + 2] * basis;
+					}
+				}
+				result[y * width + x] = (toSRGB(r) << 16) | (toSRGB(g) << 8) | toSRGB(b);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Checks the length of the given hash against its size flag.
+	 *
+	 * @return The number of horizontal components.
+	 */
+	private static int checkLength(String hash) {
+		if (hash == null || hash.length() < 6) {
+			throw new IllegalArgumentException("Invalid BlurHash: " + hash);
+		}
+		int sizeFlag = decode83(hash, 0, 1);
+		int componentsX = sizeFlag % 9 + 1;
+		int componentsY = sizeFlag / 9 + 1;
+		if (hash.length() != 4 + 2 * componentsX * componentsY) {
+			throw new IllegalArgumentException("Invalid BlurHash length: " + hash);
+		}
+		return componentsX;
+	}
+
+	private static int quantizeAC(double value, double maximumValue) {
+		return (int) Math.max(0, Math.min(18, Math.floor(signPow(value / maximumValue, 0.5) * 9 + 9.5)));
+	}
+
+	private static double signPow(double value, double exp) {
+		return value < 0 ? -Math.pow(-value, exp) : Math.pow(value, exp);
+	}
+
+	private static double toLinear(int value) {
+		double v = value / 255.0;
+		if (v <= 0.04045) {
+			return v / 12.92;
+		} else {
+			return Math.pow((v + 0.055) / 1.055, 2.4);
+		}
+	}
+
+	private static int toSRGB(double value) {
+		double v = Math.max(0, Math.min(1, value));
+		if (v <= 0.0031308) {
+			return (int) (v * 12.92 * 255 + 0.5);
+		} else {
+			return (int) ((1.055 * Math.pow(v, 1 / 2.4) - 0.055) * 255 + 0.5);
+		}
+	}
+
+	private static void encode83(StringBuilder out, int value, int length) {
+		int divisor = 1;
+		for (int n = 1; n < length; n++) {
+			divisor *= 83;
+		}
+		for (int n = 0; n < length; n++) {
+			out.append(DIGITS.charAt((value / divisor) % 83));
+			divisor /= 83;
+		}
+	}
+
+	private static int decode83(String hash, int start, int end) {
+		int result = 0;
+		for (int n = start; n < end; n++) {
+			int digit = DIGITS.indexOf(hash.charAt(n));
+			if (digit < 0) {
+				throw new IllegalArgumentException("Invalid BlurHash character: " + hash);
+			}
+			result = result * 83 + digit;
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2026 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package de.haumacher.imageServer.shared.util;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Test case for {@link BlurHash}.
+ */
+@SuppressWarnings("javadoc")
+public class TestBlurHash extends TestCase {
+
+	public void testUniform() {
+		int[] pixels = new int[8 * 6];
+		Arrays.fill(pixels, 0x336699);
+		
+		String hash = BlurHash.encode(pixels, 8, 6, 4, 3);
+		assertEquals(4 + 2 * 4 * 3, hash.length());
+		assertEquals(0x336699, BlurHash.averageColor(hash));
+	}
+
+	public void testSingleComponent() {
+		int[] pixels = { 0x000000, 0xFFFFFF };
+		
+		String hash = BlurHash.encode(pixels, 2, 1, 1, 1);
+		assertEquals(6, hash.length());
+		
+		// Averaged in linear color space.
+		assertEquals(0xBCBCBC, BlurHash.averageColor(hash));
+	}
+
+	public void testGradient() {
+		int width = 32;
+		int[] pixels = new int[width];
+		for (int x = 0; x < width; x++) {
+			int gray = x * 255 / (width - 1);
+			pixels[x] = (gray << 16) | (gray << 8) | gray;
+		}
+		
+		int[] decoded = BlurHash.decode(BlurHash.encode(pixels, width, 1, 4, 1), width, 1);
+		
+		// Dark on the left, bright on the right.
+		assertTrue(blue(decoded[0]) < 40);
+		assertTrue(blue(decoded[width - 1]) > 215);
+		for (int x = 1; x < width; x++) {
+			assertTrue(blue(decoded[x - 1]) <= blue(decoded[x]) + 2);
+		}
+	}
+
+	public void testInvalid() {
+		try {
+			BlurHash.decode("LEHV6nWB2yk8", 4, 3);
+			fail("Length does not match size flag.");
+		} catch (IllegalArgumentException ex) {
+			// Expected.
+		}
+	}
+
+	private static int blue(int rgb) {
+		return rgb & 0xFF;
+	}
+
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2026 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package de.haumacher.imageServer;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.jetty.server.HttpOutput;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * {@link WriteListener} sending a {@link ResponseBody} in non-blocking mode.
+ *
+ * <p>
+ * Data is only written, when the connection to the client is ready to accept more data. While the client is slow, no
+ * thread is occupied by the transfer.
+ * </p>
+ */
+public class AsyncFileWriter implements WriteListener {
+
+	private static final Logger LOG = Logger.getLogger(AsyncFileWriter.class.getName());
+
+	/**
+	 * Size of chunks, if the response does not support writing memory-mapped buffers.
+	 */
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	private final AsyncContext _async;
+
+	private final ServletOutputStream _out;
+
+	private final FileChannel _channel;
+
+	private final Iterator<ResponseBody.Part> _parts;
+
+	private ResponseBody.Part _current;
+
+	private long _position;
+
+	private long _end;
+
+	private byte[] _buffer;
+
+	/**
+	 * Creates a {@link AsyncFileWriter}.
+	 */
+	private AsyncFileWriter(AsyncContext async, ServletOutputStream out, FileChannel channel, ResponseBody body) {
+		_async = async;
+		_out = out;
+		_channel = channel;
+		_parts = body.getParts().iterator();
+	}
+
+	/**
+	 * Puts the given request into asynchronous mode and starts sending the given body.
+	 *
+	 * @param request
+	 *        The current request, must {@link HttpServletRequest#isAsyncSupported() support} asynchronous processing.
+	 * @param response
+	 *        The response to write to. All headers must already be set.
+	 * @param file
+	 *        The file to read {@link ResponseBody.Part#isRegion() regions} from.
+	 * @param body
+	 *        The body to send.
+	 */
+	public static void start(HttpServletRequest request, HttpServletResponse response, File file, ResponseBody body)
+			throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		AsyncContext async = null;
+		try {
+			async = request.startAsync();
+
+			// A download of a large video may take very long, stalled clients are detected by the idle timeout of
+			// the connection.
+			async.setTimeout(0);
+
+			ServletOutputStream out = response.getOutputStream();
+			out.setWriteListener(new AsyncFileWriter(async, out, channel, body));
+		} catch (IOException | RuntimeException ex) {
+			channel.close();
+			if (async != null) {
+				// Without a timeout, the request would never end otherwise.
+				async.complete();
+			}
+			throw ex;
+		}
+	}
+
+	@Override
+	public void onWritePossible() throws IOException {
+		while (_out.isReady()) {
+			if (!writeNext()) {
+				close();
+				_async.complete();
+				return;
+			}
+		}
+	}
+
+	private boolean writeNext() throws IOException {
+		if (_current == null || _position >= _end) {
+			if (!_parts.hasNext()) {
+				return false;
+			}
+			_current = _parts.next();
+			if (!_current.isRegion()) {
+				_out.write(_current.getBytes());
+				_current = null;
+				return true;
+			}
+			_position = _current.getPosition();
+			_end = _position + _current.getLength();
+			if (_position >= _end) {
+				return true;
+			}
+		}
+
+		if (_out instanceof HttpOutput) {
+			long window = Math.min(FileTransfer.MAP_WINDOW, _end - _position);
+			ByteBuffer buffer = _channel.map(MapMode.READ_ONLY, _position, window);
+			((HttpOutput) _out).write(buffer);
+			_position += window;
+		} else {
+			if (_buffer == null) {
+				_buffer = new byte[CHUNK_SIZE];
+			}
+			int direct = _channel.read(ByteBuffer.wrap(_buffer, 0, (int) Math.min(_buffer.length, _end - _position)), _position);
+			if (direct < 0) {
+				throw new EOFException("Unexpected end of file, missing " + (_end - _position) + " bytes.");
+			}
+			_out.write(_buffer, 0, direct);
+			_position += direct;
+		}
+		return true;
+	}
+
+	@Override
+	public void onError(Throwable ex) {
+		LOG.log(Level.FINE, "Asynchronous transfer aborted: " + ex.getMessage(), ex);
+		try {
+			close();
+		} finally {
+			_async.complete();
+		}
+	}
+
+	private void close() {
+		try {
+			_channel.close();
+		} catch (IOException ex) {
+			LOG.log(Level.WARNING, "Cannot close file.", ex);
+		}
+	}
+
+}
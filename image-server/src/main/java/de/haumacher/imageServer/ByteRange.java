@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2026 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package de.haumacher.imageServer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A single satisfiable range of bytes requested through a HTTP <code>Range</code> header.
+ *
+ * @see #parse(String, long)
+ */
+public class ByteRange {
+
+	private static final String BYTES_UNIT = "bytes=";
+
+	private final long _start;
+	private final long _end;
+
+	/**
+	 * Creates a {@link ByteRange}.
+	 *
+	 * @param start
+	 *        The index of the first byte (inclusive).
+	 * @param end
+	 *        The index of the last byte (inclusive).
+	 */
+	public ByteRange(long start, long end) {
+		_start = start;
+		_end = end;
+	}
+
+	/**
+	 * The index of the first byte in this range.
+	 */
+	public long getStart() {
+		return _start;
+	}
+
+	/**
+	 * The index of the last byte in this range (inclusive).
+	 */
+	public long getEnd() {
+		return _end;
+	}
+
+	/**
+	 * The number of bytes in this range.
+	 */
+	public long getLength() {
+		return _end - _start + 1;
+	}
+
+	/**
+	 * The value of the <code>Content-Range</code> header describing this range.
+	 *
+	 * @param totalLength
+	 *        The length of the complete resource.
+	 */
+	public String contentRange(long totalLength) {
+		return "bytes " + _start + "-" + _end + "/" + totalLength;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof ByteRange)) {
+			return false;
+		}
+		ByteRange other = (ByteRange) obj;
+		return _start == other._start && _end == other._end;
+	}
+
+	@Override
+	public int hashCode() {
+		return Long.hashCode(_start) * 31 + Long.hashCode(_end);
+	}
+
+	@Override
+	public String toString() {
+		return _start + "-" + _end;
+	}
+
+	/**
+	 * Parses the value of a HTTP <code>Range</code> header.
+	 *
+	 * <p>
+	 * Overlapping and adjacent ranges are coalesced, the result is sorted by start position.
+	 * </p>
+	 *
+	 * @param header
+	 *        The header value, may be <code>null</code>.
+	 * @param length
+	 *        The length of the requested resource.
+	 * @return The requested ranges, <code>null</code> if the header is missing, uses an unsupported unit, or is
+	 *         syntactically invalid (and must therefore be ignored), or an empty list, if none of the requested
+	 *         ranges can be satisfied.
+	 */
+	public static List<ByteRange> parse(String header, long length) {
+		if (header == null || !header.startsWith(BYTES_UNIT)) {
+			return null;
+		}
+
+		List<ByteRange> result = new ArrayList<>();
+		for (String spec : header.substring(BYTES_UNIT.length()).split(",")) {
+			spec = spec.trim();
+			if (spec.isEmpty()) {
+				continue;
+			}
+
+			int sepIndex = spec.indexOf('-');
+			if (sepIndex < 0) {
+				return null;
+			}
+
+			String first = spec.substring(0, sepIndex).trim();
+			String last = spec.substring(sepIndex + 1).trim();
+			try {
+				if (first.isEmpty()) {
+					// Suffix range: The last n bytes.
+					long suffixLength = parseNumber(last);
+					if (suffixLength == 0 || length == 0) {
+						continue;
+					}
+					result.add(new ByteRange(Math.max(0, length - suffixLength), length - 1));
+				} else {
+					long start = parseNumber(first);
+					long end;
+					if (last.isEmpty()) {
+						end = length - 1;
+					} else {
+						end = parseNumber(last);
+						if (end < start) {
+							return null;
+						}
+						end = Math.min(end, length - 1);
+					}
+
+					if (start >= length) {
+						continue;
+					}
+					result.add(new ByteRange(start, end));
+				}
+			} catch (NumberFormatException ex) {
+				return null;
+			}
+		}
+
+		return coalesce(result);
+	}
+
+	private static long parseNumber(String value) {
+		if (value.isEmpty() || value.charAt(0) == '+' || value.charAt(0) == '-') {
+			throw new NumberFormatException("Not a non-negative number: " + value);
+		}
+		return Long.parseLong(value);
+	}
+
+	private static List<ByteRange> coalesce(List<ByteRange> ranges) {
+		if (ranges.size() <= 1) {
+			return ranges;
+		}
+
+		Collections.sort(ranges, (r1, r2) -> Long.compare(r1._start, r2._start));
+
+		List<ByteRange> result = new ArrayList<>();
+		ByteRange current = ranges.get(0);
+		for (int n = 1, cnt = ranges.size(); n < cnt; n++) {
+			ByteRange next = ranges.get(n);
+			if (next._start <= current._end + 1) {
+				current = new ByteRange(current._start, Math.max(current._end, next._end));
+			} else {
+				result.add(current);
+				current = next;
+			}
+		}
+		result.add(current);
+		return result;
+	}
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2026 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package de.haumacher.imageServer;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Limit for the number of threads concurrently executing a CPU or memory intensive section.
+ *
+ * <p>
+ * When requests are executed on virtual threads, there is no longer a thread pool limiting the number of concurrent
+ * image decodes. A {@link ConcurrencyLimit} makes additional threads wait, until one of the running sections completes.
+ * </p>
+ */
+public class ConcurrencyLimit {
+
+	/**
+	 * Permission to execute a section guarded by a {@link ConcurrencyLimit}.
+	 *
+	 * @see ConcurrencyLimit#enter()
+	 */
+	public interface Permit extends AutoCloseable {
+		@Override
+		void close();
+	}
+
+	private static final Permit UNLIMITED = () -> {
+		// No permit to release.
+	};
+
+	private final String _name;
+
+	private volatile Semaphore _permits;
+
+	/**
+	 * Creates an unlimited {@link ConcurrencyLimit}.
+	 *
+	 * @param name
+	 *        Name of the guarded section for diagnostics.
+	 */
+	public ConcurrencyLimit(String name) {
+		_name = name;
+	}
+
+	/**
+	 * Sets the maximum number of threads concurrently executing the guarded section.
+	 *
+	 * @param limit
+	 *        The maximum number of concurrent threads, a value less than one disables the limit.
+	 */
+	public void setLimit(int limit) {
+		_permits = limit < 1 ? null : new Semaphore(limit, true);
+	}
+
+	/**
+	 * Waits until the number of threads concurrently executing the guarded section is below the limit.
+	 *
+	 * <p>
+	 * Must be used in a try-with-resources statement enclosing the guarded section:
+	 * </p>
+	 *
+	 * <pre>
+	 * try (Permit permit = limit.enter()) {
+	 * 	// Guarded section.
+	 * }
+	 * </pre>
+	 */
+	public Permit enter() {
+		Semaphore permits = _permits;
+		if (permits == null) {
+			return UNLIMITED;
+		}
+
+		permits.acquireUninterruptibly();
+		return permits::release;
+	}
+
+	@Override
+	public String toString() {
+		Semaphore permits = _permits;
+		return _name + (permits == null ? " (unlimited)" : " (available: " + permits.availablePermits() + ")");
+	}
+
+}
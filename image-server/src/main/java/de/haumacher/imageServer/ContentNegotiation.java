@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2026 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package de.haumacher.imageServer;
+
+/**
+ * Utilities for evaluating <code>Accept</code> and <code>Accept-Encoding</code> headers.
+ */
+public class ContentNegotiation {
+
+	/**
+	 * Whether the given value is acceptable according to the given header.
+	 *
+	 * @see #quality(String, String)
+	 */
+	public static boolean accepts(String header, String value) {
+		return quality(header, value) > 0.0;
+	}
+
+	/**
+	 * Whether the client accepts the given value at least as much as the given alternative.
+	 *
+	 * @param header
+	 *        The value of an <code>Accept</code> or <code>Accept-Encoding</code> header, may be <code>null</code>.
+	 * @param value
+	 *        The preferred media type or content coding, e.g. <code>image/webp</code>.
+	 * @param alternative
+	 *        The media type or content coding to use otherwise, e.g. <code>image/jpeg</code>.
+	 *
+	 * @see #quality(String, String)
+	 */
+	public static boolean prefers(String header, String value, String alternative) {
+		double quality = quality(header, value);
+		return quality > 0.0 && quality >= quality(header, alternative);
+	}
+
+	/**
+	 * The quality value the client assigned to the given value.
+	 *
+	 * <p>
+	 * The most specific entry of the header matching the given value decides. An exact match is more specific than a
+	 * <code>type/*</code> range, which is more specific than <code>*</code> or <code>*&#47;*</code>.
+	 * </p>
+	 *
+	 * @param header
+	 *        The value of an <code>Accept</code> or <code>Accept-Encoding</code> header, may be <code>null</code>.
+	 * @param value
+	 *        The media type or content coding to check, e.g. <code>image/webp</code> or <code>gzip</code>.
+	 * @return The quality value between <code>0.0</code> and <code>1.0</code>. Zero, if the value is not
+	 *         acceptable or no header was sent.
+	 */
+	public static double quality(String header, String value) {
+		if (header == null) {
+			return 0.0;
+		}
+
+		int slash = value.indexOf('/');
+		String typeRange = slash < 0 ? null : value.substring(0, slash + 1) + "*";
+
+		int bestSpecificity = 0;
+		double bestQuality = 0.0;
+		for (String entry : header.split(",")) {
+			String[] parts = entry.split(";");
+			String range = parts[0].trim();
+
+			int specificity;
+			if (range.equalsIgnoreCase(value)) {
+				specificity = 3;
+			} else if (typeRange != null && range.equalsIgnoreCase(typeRange)) {
+				specificity = 2;
+			} else if (range.equals("*") || range.equals("*/*")) {
+				specificity = 1;
+			} else {
+				continue;
+			}
+
+			if (specificity > bestSpecificity) {
+				bestSpecificity = specificity;
+				bestQuality = parseQuality(parts);
+			}
+		}
+		return bestQuality;
+	}
+
+	private static double parseQuality(String[] parts) {
+		for (int n = 1; n < parts.length; n++) {
+			String parameter = parts[n].trim();
+			if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+				try {
+					return Math.max(0.0, Math.min(1.0, Double.parseDouble(parameter.substring(2).trim())));
+				} catch (NumberFormatException ex) {
+					return 0.0;
+				}
+			}
+		}
+		return 1.0;
+	}
+
+}
@@ -62,4 +62,16 @@ public class ExifReaderPatch {
 			break;
 		}
 	}
+	
+	/**
+	 * Makes sure that the patched reader is installed.
+	 * 
+	 * <p>
+	 * Referencing the class literal does not initialize the class, this method must be called before
+	 * {@link #TAG_THUMBNAIL_DATA} can be expected in read metadata.
+	 * </p>
+	 */
+	public static void install() {
+		// Installed during class initialization.
+	}
 }
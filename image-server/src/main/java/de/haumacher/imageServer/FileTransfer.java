@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2026 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package de.haumacher.imageServer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.WritableByteChannel;
+
+import org.eclipse.jetty.server.HttpOutput;
+
+/**
+ * Delivery of file contents to a servlet response without copying the data through the Java heap.
+ *
+ * <p>
+ * If the response is written by Jetty, larger files are memory-mapped and the mapped buffers are passed directly to
+ * the connector. The data is then copied by the kernel from the page cache to the socket. Small files are read with a
+ * single read into a buffer of exactly the required size.
+ * </p>
+ */
+public class FileTransfer {
+
+	/**
+	 * Minimum number of bytes to transfer, before memory-mapping pays off.
+	 */
+	private static final long MAP_THRESHOLD = 256 * 1024;
+
+	/**
+	 * Size of the window mapped at once for very large files.
+	 */
+	static final long MAP_WINDOW = 16 * 1024 * 1024;
+
+	/**
+	 * Sends the given region of a buffer to the given response stream.
+	 *
+	 * <p>
+	 * A memory-mapped buffer is passed to the connector without copying.
+	 * </p>
+	 *
+	 * @param out
+	 *        The {@link OutputStream} of the response.
+	 * @param buffer
+	 *        The buffer to read from, positions are relative to its start.
+	 * @param position
+	 *        The position of the first byte to send.
+	 * @param length
+	 *        The number of bytes to send.
+	 */
+	public static void send(OutputStream out, ByteBuffer buffer, long position, long length) throws IOException {
+		ByteBuffer region = buffer.duplicate();
+		region.position((int) position);
+		region.limit((int) (position + length));
+		if (out instanceof HttpOutput) {
+			((HttpOutput) out).write(region);
+		} else {
+			WritableByteChannel channel = Channels.newChannel(out);
+			while (region.hasRemaining()) {
+				channel.write(region);
+			}
+		}
+	}
+
+	/**
+	 * Sends the given region of a file to the given response stream.
+	 *
+	 * @param out
+	 *        The {@link OutputStream} of the response.
+	 * @param channel
+	 *        The {@link FileChannel} to read from.
+	 * @param position
+	 *        The position of the first byte to send.
+	 * @param length
+	 *        The number of bytes to send.
+	 */
+	public static void send(OutputStream out, FileChannel channel, long position, long length) throws IOException {
+		if (out instanceof HttpOutput && length >= MAP_THRESHOLD) {
+			HttpOutput httpOut = (HttpOutput) out;
+
+			long end = position + length;
+			while (position < end) {
+				long window = Math.min(MAP_WINDOW, end - position);
+				MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, position, window);
+				httpOut.write(buffer);
+				position += window;
+			}
+		} else {
+			long end = position + length;
+			ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(MAP_THRESHOLD, length));
+			while (position < end) {
+				buffer.clear();
+				buffer.limit((int) Math.min(buffer.capacity(), end - position));
+				int direct = channel.read(buffer, position);
+				if (direct < 0) {
+					throw new EOFException("Unexpected end of file, missing " + (end - position) + " bytes.");
+				}
+				out.write(buffer.array(), 0, direct);
+				position += direct;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2026 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package de.haumacher.imageServer;
+
+import java.io.File;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Utilities for HTTP validators and conditional requests.
+ */
+public class HttpCaching {
+
+	/**
+	 * <code>Cache-Control</code> value for image, video and preview data.
+	 *
+	 * <p>
+	 * Data files are typically never changed once written, but may be replaced. Therefore, data may be cached for a
+	 * while, before it must be re-validated.
+	 * </p>
+	 */
+	public static final String CACHE_DATA = "max-age=3600";
+
+	/**
+	 * <code>Cache-Control</code> value for album and listing descriptions.
+	 *
+	 * <p>
+	 * Descriptions are edited online and must always be re-validated.
+	 * </p>
+	 */
+	public static final String CACHE_RESOURCE = "no-cache";
+
+	/**
+	 * A strong entity tag for the current contents of the given file.
+	 */
+	public static String etag(File file) {
+		return etag(file.length(), file.lastModified());
+	}
+
+	/**
+	 * A strong entity tag for contents of the given length and modification time.
+	 */
+	public static String etag(long length, long lastModified) {
+		return "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+	}
+
+	/**
+	 * A strong entity tag for the given version of a resource.
+	 */
+	public static String etag(long version) {
+		return etag(version, null);
+	}
+
+	/**
+	 * A strong entity tag for the given version of a resource delivered with the given content coding.
+	 *
+	 * <p>
+	 * Different representations of the same resource version must have different strong entity tags.
+	 * </p>
+	 *
+	 * @param version
+	 *        The version of the resource.
+	 * @param coding
+	 *        The content coding of the representation, <code>null</code> for the identity coding.
+	 */
+	public static String etag(long version, String coding) {
+		return "\"v" + Long.toHexString(version) + (coding == null ? "" : "-" + coding) + "\"";
+	}
+
+	/**
+	 * Sets the validator headers to the given response.
+	 *
+	 * @param response
+	 *        The response to set headers to.
+	 * @param etag
+	 *        The entity tag of the resource being delivered.
+	 * @param lastModified
+	 *        The last modification date of the resource.
+	 * @param cacheControl
+	 *        The value of the <code>Cache-Control</code> header.
+	 */
+	public static void setValidators(HttpServletResponse response, String etag, long lastModified, String cacheControl) {
+		response.setHeader("ETag", etag);
+		response.setDateHeader("Last-Modified", lastModified);
+		response.setHeader("Cache-Control", cacheControl);
+	}
+
+	/**
+	 * Whether the client already has a valid copy of the requested resource.
+	 *
+	 * <p>
+	 * <code>If-None-Match</code> takes precedence over <code>If-Modified-Since</code>, see RFC 7232, section 6.
+	 * </p>
+	 *
+	 * @param request
+	 *        The current request.
+	 * @param etag
+	 *        The current entity tag of the requested resource.
+	 * @param lastModified
+	 *        The current modification date of the requested resource.
+	 */
+	public static boolean notModified(HttpServletRequest request, String etag, long lastModified) {
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch != null) {
+			return matchesAny(ifNoneMatch, etag, true);
+		}
+
+		long ifModifiedSince;
+		try {
+			ifModifiedSince = request.getDateHeader("If-Modified-Since");
+		} catch (IllegalArgumentException ex) {
+			return false;
+		}
+		if (ifModifiedSince < 0) {
+			return false;
+		}
+
+		// HTTP dates have second resolution.
+		return lastModified / 1000 <= ifModifiedSince / 1000;
+	}
+
+	/**
+	 * Whether the given header value containing a list of entity tags matches the given tag.
+	 *
+	 * @param header
+	 *        The value of a <code>If-Match</code>, <code>If-None-Match</code>, or <code>If-Range</code> header.
+	 * @param etag
+	 *        The current (strong) entity tag of the resource.
+	 * @param weak
+	 *        Whether weak comparison should be used.
+	 */
+	public static boolean matchesAny(String header, String etag, boolean weak) {
+		for (String candidate : header.split(",")) {
+			candidate = candidate.trim();
+			if (candidate.equals("*")) {
+				return true;
+			}
+			if (candidate.startsWith("W/")) {
+				if (!weak) {
+					continue;
+				}
+				candidate = candidate.substring(2);
+			}
+			if (candidate.equals(etag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Sends a <code>304 Not Modified</code> response.
+	 */
+	public static void sendNotModified(HttpServletResponse response) {
+		response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+	}
+
+}
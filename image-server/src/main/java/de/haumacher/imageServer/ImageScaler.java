@@ -0,0 +1,419 @@
+/*
+ * Copyright (c) 2026 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package de.haumacher.imageServer;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import de.haumacher.imageServer.shared.model.Orientation;
+import de.haumacher.imageServer.shared.util.Orientations;
+
+/**
+ * Area-averaging image down-scaler working directly on the raster data of an image.
+ *
+ * <p>
+ * Each target pixel is the average of all source pixels it covers, partially covered source pixels contribute
+ * according to their coverage. In contrast to {@link java.awt.Graphics2D#drawImage(java.awt.Image, int, int,
+ * java.awt.image.ImageObserver) drawImage()} with an interpolation hint, this does not alias at large down-scaling
+ * ratios. The scaling is separable and processes the source image row by row, the target image is written in its
+ * display {@link Orientation} without creating an intermediate image.
+ * </p>
+ *
+ * <p>
+ * Scratch buffers are borrowed from a bounded pool and returned after each call. In contrast to per-thread buffers,
+ * these are also reused, if scaling runs on short-lived (virtual) threads.
+ * </p>
+ */
+public class ImageScaler {
+
+	/**
+	 * Idle scratch buffers, at most one per processor is retained, since scaling is CPU bound.
+	 */
+	private static final BlockingQueue<Scratch> SCRATCH =
+		new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors());
+
+	/**
+	 * Scales the given image down to the given size.
+	 *
+	 * @param src
+	 *        The image to scale in its raw (stored) orientation.
+	 * @param orientation
+	 *        The {@link Orientation} to apply to the source image.
+	 * @param width
+	 *        The width of the result in display orientation, must not exceed the display width of the source.
+	 * @param height
+	 *        The height of the result in display orientation, must not exceed the display height of the source.
+	 * @return A new image of type {@link BufferedImage#TYPE_INT_RGB}, or {@link BufferedImage#TYPE_INT_ARGB}, if the
+	 *         source has an alpha channel.
+	 */
+	public static BufferedImage scale(BufferedImage src, Orientation orientation, int width, int height) {
+		int srcWidth = src.getWidth();
+		int srcHeight = src.getHeight();
+
+		int code = Orientations.toCode(orientation);
+		boolean swap = code >= 5;
+		int rawWidth = swap ? height : width;
+		int rawHeight = swap ? width : height;
+		if (rawWidth < 1 || rawHeight < 1 || rawWidth > srcWidth || rawHeight > srcHeight) {
+			throw new IllegalArgumentException("Cannot scale " + srcWidth + "x" + srcHeight + " to " + width + "x"
+				+ height + " (" + orientation + ").");
+		}
+
+		boolean alpha = src.getColorModel().hasAlpha();
+		int channels = alpha ? 4 : 3;
+
+		BufferedImage result = new BufferedImage(width, height, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+		int[] out = ((DataBufferInt) result.getRaster().getDataBuffer()).getData();
+
+		Scratch scratch = SCRATCH.poll();
+		if (scratch == null) {
+			scratch = new Scratch();
+		}
+		try {
+			scale(src, code, width, rawWidth, rawHeight, channels, out, scratch);
+		} finally {
+			// Drops the buffers, if the pool is already full.
+			SCRATCH.offer(scratch);
+		}
+		return result;
+	}
+
+	private static void scale(BufferedImage src, int code, int width, int rawWidth, int rawHeight, int channels,
+			int[] out, Scratch scratch) {
+		int srcWidth = src.getWidth();
+		int srcHeight = src.getHeight();
+		boolean alpha = channels == 4;
+		scratch.init(srcWidth, rawWidth, channels);
+
+		RowReader reader = createReader(src, alpha, scratch);
+
+		int[] columnIndex = scratch._columnIndex;
+		float[] columnWeight = scratch._columnWeight;
+		weights(srcWidth, rawWidth, columnIndex, columnWeight);
+
+		double rowScale = ((double) srcHeight) / rawHeight;
+		float norm = (float) (1.0 / (rowScale * srcWidth / rawWidth));
+
+		float[] row = scratch._row;
+		float[] current = scratch._current;
+		float[] next = scratch._next;
+		int rowSize = rawWidth * channels;
+
+		int target = 0;
+		for (int y = 0; y < srcHeight; y++) {
+			int index = index(y, rowScale, rawHeight);
+			float weight = weight(y, index, rowScale, rawHeight);
+
+			while (target < index) {
+				emit(out, code, width, rawWidth, rawHeight, target, current, channels, norm);
+				float[] tmp = current;
+				current = next;
+				next = tmp;
+				Arrays.fill(next, 0, rowSize, 0f);
+				target++;
+			}
+
+			Arrays.fill(row, 0f);
+			reader.read(y, row, columnIndex, columnWeight);
+
+			for (int n = 0; n < rowSize; n++) {
+				current[n] += row[n] * weight;
+			}
+			if (weight < 1f) {
+				float rest = 1f - weight;
+				for (int n = 0; n < rowSize; n++) {
+					next[n] += row[n] * rest;
+				}
+			}
+		}
+		while (target < rawHeight) {
+			emit(out, code, width, rawWidth, rawHeight, target, current, channels, norm);
+			float[] tmp = current;
+			current = next;
+			next = tmp;
+			Arrays.fill(next, 0, rowSize, 0f);
+			target++;
+		}
+	}
+
+	/**
+	 * Computes for each source index the first target index it contributes to and its weight for that target.
+	 *
+	 * <p>
+	 * Since the scale factor is at least one, a source pixel contributes to at most two target pixels. The remaining
+	 * weight goes to the following target index.
+	 * </p>
+	 */
+	private static void weights(int srcSize, int targetSize, int[] indexes, float[] weights) {
+		double scale = ((double) srcSize) / targetSize;
+		for (int s = 0; s < srcSize; s++) {
+			int index = index(s, scale, targetSize);
+			indexes[s] = index;
+			weights[s] = weight(s, index, scale, targetSize);
+		}
+	}
+
+	private static int index(int s, double scale, int targetSize) {
+		return Math.min(targetSize - 1, (int) (s / scale));
+	}
+
+	private static float weight(int s, int index, double scale, int targetSize) {
+		if (index == targetSize - 1) {
+			return 1f;
+		}
+		return (float) Math.min(1.0, (index + 1) * scale - s);
+	}
+
+	/**
+	 * Writes a completed row of the scaled image in raw orientation to the result in display orientation.
+	 */
+	private static void emit(int[] out, int code, int width, int rawWidth, int rawHeight, int y, float[] row,
+			int channels, float norm) {
+		int start;
+		int stride;
+		switch (code) {
+			case 2:
+				start = y * width + rawWidth - 1;
+				stride = -1;
+				break;
+			case 3:
+				start = (rawHeight - 1 - y) * width + rawWidth - 1;
+				stride = -1;
+				break;
+			case 4:
+				start = (rawHeight - 1 - y) * width;
+				stride = 1;
+				break;
+			case 5:
+				start = y;
+				stride = width;
+				break;
+			case 6:
+				start = rawHeight - 1 - y;
+				stride = width;
+				break;
+			case 7:
+				start = (rawWidth - 1) * width + rawHeight - 1 - y;
+				stride = -width;
+				break;
+			case 8:
+				start = (rawWidth - 1) * width + y;
+				stride = -width;
+				break;
+			default:
+				start = y * width;
+				stride = 1;
+				break;
+		}
+
+		int pos = start;
+		if (channels == 4) {
+			for (int x = 0, n = 0; x < rawWidth; x++, n += 4) {
+				float a = row[n + 3];
+				int pixel;
+				if (a <= 0f) {
+					pixel = 0;
+				} else {
+					// Colors are accumulated pre-multiplied with alpha.
+					float inv = 255f / a;
+					pixel = (clamp(a * norm) << 24) | (clamp(row[n] * inv) << 16) | (clamp(row[n + 1] * inv) << 8)
+						| clamp(row[n + 2] * inv);
+				}
+				out[pos] = pixel;
+				pos += stride;
+			}
+		} else {
+			for (int x = 0, n = 0; x < rawWidth; x++, n += 3) {
+				out[pos] = (clamp(row[n] * norm) << 16) | (clamp(row[n + 1] * norm) << 8) | clamp(row[n + 2] * norm);
+				pos += stride;
+			}
+		}
+	}
+
+	private static int clamp(float value) {
+		int result = (int) (value + 0.5f);
+		return result < 0 ? 0 : (result > 255 ? 255 : result);
+	}
+
+	private static RowReader createReader(BufferedImage src, boolean alpha, Scratch scratch) {
+		Raster raster = src.getRaster();
+		SampleModel sampleModel = raster.getSampleModel();
+		ColorModel colorModel = src.getColorModel();
+
+		if (raster.getDataBuffer() instanceof DataBufferByte && sampleModel instanceof PixelInterleavedSampleModel
+			&& colorModel instanceof ComponentColorModel && colorModel.getColorSpace().isCS_sRGB()
+			&& !colorModel.isAlphaPremultiplied() && sampleModel.getNumBands() == (alpha ? 4 : 3)
+			&& sampleModel.getDataType() == DataBuffer.TYPE_BYTE) {
+			return new ByteReader(src);
+		}
+
+		int type = src.getType();
+		if (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB) {
+			int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+			int scanline = ((SinglePixelPackedSampleModel) sampleModel).getScanlineStride();
+			int offset = -raster.getSampleModelTranslateY() * scanline - raster.getSampleModelTranslateX();
+			return (y, row, indexes, weights) -> accumulate(data, offset + y * scanline, src.getWidth(), alpha, row,
+				indexes, weights);
+		}
+
+		// Generic fallback for all other image types, let Java2D convert each row to sRGB.
+		int[] buffer = scratch._pixels;
+		return (y, row, indexes, weights) -> {
+			src.getRGB(0, y, src.getWidth(), 1, buffer, 0, src.getWidth());
+			accumulate(buffer, 0, src.getWidth(), alpha, row, indexes, weights);
+		};
+	}
+
+	private static void accumulate(int[] data, int offset, int width, boolean alpha, float[] row, int[] indexes,
+			float[] weights) {
+		if (alpha) {
+			for (int x = 0; x < width; x++) {
+				int pixel = data[offset + x];
+				float a = pixel >>> 24;
+				float f = a / 255f;
+				add4(row, indexes[x] * 4, weights[x], ((pixel >> 16) & 0xFF) * f, ((pixel >> 8) & 0xFF) * f,
+					(pixel & 0xFF) * f, a);
+			}
+		} else {
+			for (int x = 0; x < width; x++) {
+				int pixel = data[offset + x];
+				add3(row, indexes[x] * 3, weights[x], (pixel >> 16) & 0xFF, (pixel >> 8) & 0xFF, pixel & 0xFF);
+			}
+		}
+	}
+
+	private static void add3(float[] row, int n, float w, float r, float g, float b) {
+		row[n] += r * w;
+		row[n + 1] += g * w;
+		row[n + 2] += b * w;
+		float rest = 1f - w;
+		row[n + 3] += r * rest;
+		row[n + 4] += g * rest;
+		row[n + 5] += b * rest;
+	}
+
+	private static void add4(float[] row, int n, float w, float r, float g, float b, float a) {
+		row[n] += r * w;
+		row[n + 1] += g * w;
+		row[n + 2] += b * w;
+		row[n + 3] += a * w;
+		float rest = 1f - w;
+		row[n + 4] += r * rest;
+		row[n + 5] += g * rest;
+		row[n + 6] += b * rest;
+		row[n + 7] += a * rest;
+	}
+
+	/**
+	 * Horizontal scaling of a single source row.
+	 */
+	private interface RowReader {
+
+		/**
+		 * Adds the scaled source row with the given index to the given target row.
+		 */
+		void read(int y, float[] row, int[] indexes, float[] weights);
+
+	}
+
+	/**
+	 * {@link RowReader} for 8 bit interleaved sRGB data, as produced by the JPEG and PNG decoders.
+	 */
+	private static final class ByteReader implements RowReader {
+
+		private final byte[] _data;
+		private final int _width;
+		private final int _scanline;
+		private final int _pixelStride;
+		private final int _offset;
+		private final int _r;
+		private final int _g;
+		private final int _b;
+		private final int _a;
+
+		ByteReader(BufferedImage src) {
+			Raster raster = src.getRaster();
+			PixelInterleavedSampleModel sampleModel = (PixelInterleavedSampleModel) raster.getSampleModel();
+			int[] bandOffsets = sampleModel.getBandOffsets();
+
+			_data = ((DataBufferByte) raster.getDataBuffer()).getData();
+			_width = src.getWidth();
+			_scanline = sampleModel.getScanlineStride();
+			_pixelStride = sampleModel.getPixelStride();
+			_offset = raster.getDataBuffer().getOffset() - raster.getSampleModelTranslateY() * _scanline
+				- raster.getSampleModelTranslateX() * _pixelStride;
+			_r = bandOffsets[0];
+			_g = bandOffsets[1];
+			_b = bandOffsets[2];
+			_a = bandOffsets.length > 3 ? bandOffsets[3] : -1;
+		}
+
+		@Override
+		public void read(int y, float[] row, int[] indexes, float[] weights) {
+			byte[] data = _data;
+			int pos = _offset + y * _scanline;
+			if (_a < 0) {
+				for (int x = 0; x < _width; x++, pos += _pixelStride) {
+					add3(row, indexes[x] * 3, weights[x], data[pos + _r] & 0xFF, data[pos + _g] & 0xFF,
+						data[pos + _b] & 0xFF);
+				}
+			} else {
+				for (int x = 0; x < _width; x++, pos += _pixelStride) {
+					float a = data[pos + _a] & 0xFF;
+					float f = a / 255f;
+					add4(row, indexes[x] * 4, weights[x], (data[pos + _r] & 0xFF) * f, (data[pos + _g] & 0xFF) * f,
+						(data[pos + _b] & 0xFF) * f, a);
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * Buffers reused across scaling operations, owned by a single scaling operation at a time.
+	 */
+	private static final class Scratch {
+
+		int[] _columnIndex = new int[0];
+		float[] _columnWeight = new float[0];
+		int[] _pixels = new int[0];
+		float[] _row = new float[0];
+		float[] _current = new float[0];
+		float[] _next = new float[0];
+
+		void init(int srcWidth, int rawWidth, int channels) {
+			if (_columnIndex.length < srcWidth) {
+				_columnIndex = new int[srcWidth];
+				_columnWeight = new float[srcWidth];
+				_pixels = new int[srcWidth];
+			}
+
+			// One additional pixel for the remaining weight of the last source pixel, which is always zero.
+			int rowSize = (rawWidth + 1) * channels;
+			if (_row.length != rowSize) {
+				_row = new float[rowSize];
+			}
+			if (_current.length < rowSize) {
+				_current = new float[rowSize];
+				_next = new float[rowSize];
+			} else {
+				Arrays.fill(_current, 0f);
+				Arrays.fill(_next, 0f);
+			}
+		}
+
+	}
+
+}
@@ -7,15 +7,19 @@ import static de.haumacher.util.html.HTML.*;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Base64;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -23,10 +27,9 @@ import java.util.stream.Collectors;
 
 import org.apache.commons.fileupload2.jakarta.JakartaServletFileUpload;
 
+import de.haumacher.imageServer.cache.PreviewLookup;
 import de.haumacher.imageServer.cache.ResourceCache;
 import de.haumacher.imageServer.shared.model.FolderResource;
-import de.haumacher.imageServer.shared.model.ImageKind;
-import de.haumacher.imageServer.shared.model.ImagePart;
 import de.haumacher.imageServer.shared.model.Resource;
 import de.haumacher.imageServer.upload.UploadFactory;
 import de.haumacher.imageServer.upload.UploadItem;
@@ -55,12 +58,21 @@ public class ImageServlet extends HttpServlet {
 	private static final Logger LOG = Logger.getLogger(ImageServlet.class.getName());
 
 	static {
+		ExifReaderPatch.install();
 		LOG.info("Loading: " + ExifReaderPatch.class);
 	}
 
+	/**
+	 * Transparent GIF image of size 1x1, delivered while a preview is being created.
+	 */
+	private static final byte[] PLACEHOLDER =
+		Base64.getDecoder().decode("R0lGODlhAQABAIAAAAAAAP///yH5BAEAAAAALAAAAAABAAEAAAIBRAA7");
+
 	private Path _basePath;
 	private ResourceCache _cache;
 	
+	private long _asyncThreshold = -1;
+	
 	private JakartaServletFileUpload<UploadItem, UploadFactory> _fileUpload;
 
 	/** 
@@ -69,8 +81,57 @@ public class ImageServlet extends HttpServlet {
 	 * @param basePath The root path of the photo album to serve.
 	 */
 	public ImageServlet(File basePath) throws IOException {
+		this(basePath, ResourceCache.DEFAULT_BUDGET);
+	}
+
+	/** 
+	 * Creates a {@link ImageServlet}.
+	 *
+	 * @param basePath The root path of the photo album to serve.
+	 * @param cacheBudget The estimated heap memory in bytes used for caching folder descriptions.
+	 */
+	public ImageServlet(File basePath, long cacheBudget) throws IOException {
 		_basePath = basePath.toPath();
-		_cache = new ResourceCache();
+		_cache = new ResourceCache(cacheBudget);
+		_cache.setPreviewHeights(PreviewCache.getPreviewHeights());
+		_cache.setPreviewLookup(new PreviewLookup() {
+			@Override
+			public InputStream openPreview(File file) throws IOException {
+				return PreviewCache.openPreview(file);
+			}
+
+			@Override
+			public void invalidate(File file) {
+				PreviewCache.invalidate(file);
+			}
+		});
+	}
+	
+	/**
+	 * The {@link ResourceCache} describing the served albums.
+	 */
+	public ResourceCache getResourceCache() {
+		return _cache;
+	}
+	
+	/**
+	 * Minimum size of data to be delivered in non-blocking mode.
+	 * 
+	 * <p>
+	 * A negative value means that all data is written in blocking mode.
+	 * </p>
+	 * 
+	 * @see AsyncFileWriter
+	 */
+	public long getAsyncThreshold() {
+		return _asyncThreshold;
+	}
+	
+	/**
+	 * @see #getAsyncThreshold()
+	 */
+	public void setAsyncThreshold(long asyncThreshold) {
+		_asyncThreshold = asyncThreshold;
 	}
 	
 	@Override
@@ -83,6 +144,16 @@ public class ImageServlet extends HttpServlet {
 		_fileUpload = new JakartaServletFileUpload<UploadItem, UploadFactory>(new UploadFactory(repository));
 	}
 
+	@Override
+	public void destroy() {
+		try {
+			_cache.close();
+		} catch (IOException ex) {
+			LOG.log(Level.WARNING, "Cannot stop watching album directories.", ex);
+		}
+		super.destroy();
+	}
+
 	@Override
 	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
 		String pathInfo = request.getPathInfo();
@@ -395,9 +466,8 @@ public class ImageServlet extends HttpServlet {
 	}
 
 	private void serveFolder(Context context, PathInfo pathInfo) throws IOException {
-		Resource resource = _cache.lookup(pathInfo);
 		if (jsonRequested(context)) {
-			serveJson(context.response(), resource);
+			serveJson(context, _cache.lookupEntry(pathInfo));
 		} else {
 			error404(context);
 		}
@@ -405,77 +475,275 @@ public class ImageServlet extends HttpServlet {
 	
 	private void serveImage(Context context, PathInfo pathInfo) throws IOException {
 		if (jsonRequested(context)) {
-			Resource resource = _cache.lookup(pathInfo);
-			serveJson(context.response(), resource);
+			ResourceCache.Entry entry = _cache.lookupEntry(pathInfo);
+			if (entry == null) {
+				error404(context);
+				return;
+			}
+			serveJson(context, entry);
 			return;
 		}
 
 		String type = context.getParameter("type");
 		if ("tn".equals(type)) {
-			File data;
+			int height;
+			String heightParam = context.getParameter("h");
+			if (heightParam == null) {
+				height = 0;
+			} else {
+				try {
+					height = Integer.parseInt(heightParam);
+				} catch (NumberFormatException ex) {
+					height = -1;
+				}
+				if (height <= 0) {
+					error(context, HttpServletResponse.SC_BAD_REQUEST);
+					return;
+				}
+			}
+			
+			// Previews are delivered as WebP to clients accepting it at least as much as JPEG.
+			context.response().setHeader("Vary", "Accept");
+			String accept = context.request().getHeader("Accept");
+			boolean webp = ContentNegotiation.prefers(accept, "image/webp", "image/jpeg");
+			
+			PreviewData data;
+			try {
+				data = PreviewCache.requestPreview(pathInfo.toFile(), height, webp);
+			} catch (PreviewException ex) {
+				LOG.log(Level.WARNING, ex.getMessage(), ex.getCause());
+				error404(context);
+				return;
+			}
+			if (data == null) {
+				servePlaceholder(context);
+				return;
+			}
+			serveData(context, data, mimeType(context, data.getName()));
+		} else if ("micro".equals(type)) {
+			PreviewData data;
 			try {
-				data = PreviewCache.createPreview(pathInfo.toFile());
+				data = PreviewCache.createMicroPreview(pathInfo.toFile());
 			} catch (PreviewException ex) {
 				LOG.log(Level.WARNING, ex.getMessage(), ex.getCause());
 				error404(context);
 				return;
 			}
+			if (data.getLength() == 0) {
+				// No embedded thumbnail, not worth a warning, since clients may request it before knowing.
+				notFound(context);
+				return;
+			}
 			serveData(context, data, "image/jpeg");
 		} else {
-			Resource resource = _cache.lookup(pathInfo);
-			if (resource != null) {
-				String mimeType = mimeType(context, resource);
-				
-				serveData(context, pathInfo.toFile(), mimeType);
-			}
+			// Note: Originals are served without resolving the album model, the file is known to exist and to be a
+			// supported image or video.
+			File file = pathInfo.toFile();
+			serveData(context, file, mimeType(context, file.getName()));
 		}
 	}
 
-	private String mimeType(Context context, Resource resource) {
-		if (resource instanceof ImagePart) {
-			ImagePart image = (ImagePart) resource;
-			ImageKind kind = image.getKind();
-			switch (kind) {
-			case VIDEO:
-				return "video/mpeg";
-			case QUICKTIME:
-				return "video/quicktime";
-			case IMAGE:
-				return context.request().getServletContext().getMimeType(image.getName()); 
+	private static String mimeType(Context context, String fileName) {
+		String suffix = Util.suffix(fileName);
+		if (suffix != null) {
+			switch (suffix) {
+				case "jpg":
+				case "jpeg":
+					return "image/jpeg";
+				case "png":
+					return "image/png";
+				case "webp":
+					return "image/webp";
+				case "mp4":
+					return "video/mp4";
 			}
 		}
-		return "application/binary";
+		String mimeType = context.request().getServletContext().getMimeType(fileName);
+		return mimeType != null ? mimeType : "application/octet-stream";
+	}
+
+	/**
+	 * Answers a preview request with a transparent placeholder image, while the preview is being created.
+	 * 
+	 * <p>
+	 * The placeholder must not be cached, the client requests the preview again after the given delay.
+	 * </p>
+	 */
+	private void servePlaceholder(Context context) throws IOException {
+		LOG.log(Level.FINE, "Delivering placeholder.");
+		HttpServletResponse response = context.response();
+		response.setHeader("Access-Control-Allow-Origin", "*");
+		response.setStatus(HttpServletResponse.SC_ACCEPTED);
+		response.setHeader("Retry-After", "1");
+		response.setHeader("Cache-Control", "no-store");
+		response.setContentType("image/gif");
+		response.setContentLength(PLACEHOLDER.length);
+		response.getOutputStream().write(PLACEHOLDER);
 	}
 
-	private void serveJson(HttpServletResponse response, Resource album) throws IOException {
+	private void serveJson(Context context, ResourceCache.Entry entry) throws IOException {
+		HttpServletResponse response = context.response();
+		
+		// Allow access from mobile app.
+		response.setHeader("Access-Control-Allow-Origin", "*");
+		
+		// The serialization is delivered either compressed or plain, depending on the client.
+		response.setHeader("Vary", "Accept-Encoding");
+		boolean gzip = ContentNegotiation.accepts(context.request().getHeader("Accept-Encoding"), "gzip");
+		
+		String etag = HttpCaching.etag(entry.getVersion(), gzip ? "gzip" : null);
+		long lastModified = entry.getLastModified();
+		HttpCaching.setValidators(response, etag, lastModified, HttpCaching.CACHE_RESOURCE);
+		if (HttpCaching.notModified(context.request(), etag, lastModified)) {
+			LOG.log(Level.FINE, "JSON not modified.");
+			HttpCaching.sendNotModified(response);
+			return;
+		}
+		
 		LOG.log(Level.FINE, "Delivering JSON.");
 		
 		response.setContentType("application/json");
 		response.setCharacterEncoding("utf-8");
 		
-		// Allow access from mobile app.
-		response.setHeader("Access-Control-Allow-Origin", "*");
-		try (JsonWriter json = new JsonWriter(new WriterAdapter(new OutputStreamWriter(response.getOutputStream(), "utf-8")))) {
-			album.writeTo(json);
+		byte[] data;
+		if (gzip) {
+			response.setHeader("Content-Encoding", "gzip");
+			data = entry.getJsonGzip();
+		} else {
+			data = entry.getJson();
 		}
+		response.setContentLength(data.length);
+		response.getOutputStream().write(data);
+	}
+
+	private void serveData(Context context, PreviewData data, String mimeType) throws IOException {
+		File file = data.getFile();
+		if (file != null) {
+			serveData(context, file, mimeType);
+			return;
+		}
+		
+		ByteBuffer buffer = data.getBuffer();
+		long length = data.getLength();
+		long lastModified = data.getLastModified();
+		serveData(context, length, lastModified, HttpCaching.etag(length, lastModified), mimeType,
+			(request, response, body) -> body.send(response.getOutputStream(), buffer));
 	}
 
 	private void serveData(Context context, File file, String mimeType) throws IOException {
+		long lastModified = file.lastModified();
+		serveData(context, file.length(), lastModified, HttpCaching.etag(file), mimeType, (request, response, body) -> {
+			if (useAsync(request, body)) {
+				AsyncFileWriter.start(request, response, file, body);
+			} else {
+				try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+					body.send(response.getOutputStream(), in);
+				}
+			}
+		});
+	}
+
+	private void serveData(Context context, long length, long lastModified, String etag, String mimeType,
+			BodyWriter writer) throws IOException {
 		LOG.log(Level.FINE, "Delivering image data: " + mimeType);
+		HttpServletRequest request = context.request();
 		HttpServletResponse response = context.response();
 
-		response.setContentType(mimeType);
 		// Allow access from mobile app (is required even for images, since they are rendered using WebGL from Flutter).
 		response.setHeader("Access-Control-Allow-Origin", "*");
-		long length = file.length();
-		if (length <= Integer.MAX_VALUE) {
-			response.setContentLength((int) length);
+		response.setHeader("Accept-Ranges", "bytes");
+
+		HttpCaching.setValidators(response, etag, lastModified, HttpCaching.CACHE_DATA);
+		if (HttpCaching.notModified(request, etag, lastModified)) {
+			HttpCaching.sendNotModified(response);
+			return;
+		}
+
+		List<ByteRange> ranges = rangeRequested(request, length, etag, lastModified);
+		if (ranges != null && ranges.isEmpty()) {
+			LOG.log(Level.FINE, "Unsatisfiable range requested: " + request.getHeader("Range"));
+			response.setHeader("Content-Range", "bytes */" + length);
+			response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+			return;
+		}
+
+		ResponseBody body = new ResponseBody();
+		if (ranges == null) {
+			response.setContentType(mimeType);
+			body.addRegion(0, length);
+		} else {
+			response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+			if (ranges.size() == 1) {
+				ByteRange range = ranges.get(0);
+
+				response.setContentType(mimeType);
+				response.setHeader("Content-Range", range.contentRange(length));
+				body.addRegion(range.getStart(), range.getLength());
+			} else {
+				String boundary = Long.toHexString(System.nanoTime()) + Long.toHexString(length);
+
+				response.setContentType("multipart/byteranges; boundary=" + boundary);
+				for (ByteRange range : ranges) {
+					String partHeader =
+						"\r\n--" + boundary + "\r\n" +
+						"Content-Type: " + mimeType + "\r\n" +
+						"Content-Range: " + range.contentRange(length) + "\r\n" +
+						"\r\n";
+					body.addBytes(partHeader.getBytes(StandardCharsets.ISO_8859_1));
+					body.addRegion(range.getStart(), range.getLength());
+				}
+				body.addBytes(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1));
+			}
 		}
-		try (FileInputStream in = new FileInputStream(file)) {
-			Util.sendBytes(response, in);
+		response.setContentLengthLong(body.getLength());
+		writer.write(request, response, body);
+	}
+
+	/**
+	 * Whether the given body should be sent in non-blocking mode.
+	 */
+	private boolean useAsync(HttpServletRequest request, ResponseBody body) {
+		return _asyncThreshold >= 0 && body.getLength() >= _asyncThreshold && request.isAsyncSupported()
+			&& "GET".equals(request.getMethod());
+	}
+
+	/**
+	 * The {@link ByteRange}s requested by the client.
+	 *
+	 * @return The requested ranges, <code>null</code> if the full content must be sent, or an empty list, if the
+	 *         requested ranges cannot be satisfied.
+	 * @see ByteRange#parse(String, long)
+	 */
+	private static List<ByteRange> rangeRequested(HttpServletRequest request, long length, String etag, long lastModified) {
+		String rangeHeader = request.getHeader("Range");
+		if (rangeHeader == null) {
+			return null;
+		}
+
+		String ifRange = request.getHeader("If-Range");
+		if (ifRange != null) {
+			if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+				// If-Range requires a strong comparison.
+				return ifRange.trim().equals(etag) ? ByteRange.parse(rangeHeader, length) : null;
+			}
+
+			long ifRangeDate;
+			try {
+				ifRangeDate = request.getDateHeader("If-Range");
+			} catch (IllegalArgumentException ex) {
+				return null;
+			}
+
+			// HTTP dates have second resolution.
+			if (ifRangeDate / 1000 != lastModified / 1000) {
+				return null;
+			}
 		}
+
+		return ByteRange.parse(rangeHeader, length);
 	}
 
+
 	private static boolean jsonRequested(Context context) {
 		return "json".equals(context.getParameter("type"));
 	}
@@ -486,7 +754,17 @@ public class ImageServlet extends HttpServlet {
 
 	private void error(Context context, int errorCode) {
 		LOG.log(Level.WARNING, "Faild to access '" + context.request().getPathInfo() + "': " + errorCode);
+		sendStatus(context, errorCode);
+	}
 
+	/**
+	 * Answers with 404 for a resource that is known not to exist, without logging.
+	 */
+	private static void notFound(Context context) {
+		sendStatus(context, HttpServletResponse.SC_NOT_FOUND);
+	}
+
+	private static void sendStatus(Context context, int errorCode) {
 		HttpServletResponse response = context.response();
 		response.setHeader("Access-Control-Allow-Origin", "*");
 		response.setStatus(errorCode);
@@ -531,4 +809,17 @@ public class ImageServlet extends HttpServlet {
 		}
 		
 	}
+
+	/**
+	 * Algorithm sending a {@link ResponseBody} after all headers have been set.
+	 */
+	private interface BodyWriter {
+
+		/**
+		 * Writes the given body to the given response.
+		 */
+		void write(HttpServletRequest request, HttpServletResponse response, ResponseBody body) throws IOException;
+
+	}
+
 }
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2026 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package de.haumacher.imageServer;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import de.haumacher.imageServer.shared.model.Orientation;
+import de.haumacher.imageServer.shared.util.Orientations;
+
+/**
+ * {@link PreviewEngine} decoding with {@link ImageIO} and scaling with the {@link ImageScaler}.
+ */
+public class Java2DPreviewEngine implements PreviewEngine {
+
+	/**
+	 * Singleton {@link Java2DPreviewEngine} instance.
+	 */
+	public static final Java2DPreviewEngine INSTANCE = new Java2DPreviewEngine();
+
+	/**
+	 * The {@link #getName(String) name} of this engine.
+	 */
+	public static final String NAME = "java2d";
+
+	private Java2DPreviewEngine() {
+		// Singleton constructor.
+	}
+
+	@Override
+	public boolean supports(String imageType) {
+		return "jpg".equals(imageType) || "png".equals(imageType);
+	}
+
+	@Override
+	public String getName(String imageType) {
+		return NAME;
+	}
+
+	@Override
+	public void writePreview(File file, File preview, String imageType, int quality, Orientation orientation,
+			int subsampling, int previewWidth, int previewHeight) throws IOException {
+		BufferedImage orig = readImage(file, subsampling);
+
+		// Scale the rest of the way, the decoded image is already reduced by the subsampling factor. The decoded
+		// image may be slightly smaller than the original divided by the subsampling factor.
+		int scaledWidth = Math.min(previewWidth, Orientations.width(orientation, orig.getWidth(), orig.getHeight()));
+		int scaledHeight = Math.min(previewHeight, Orientations.height(orientation, orig.getWidth(), orig.getHeight()));
+		BufferedImage scaled = ImageScaler.scale(orig, orientation, scaledWidth, scaledHeight);
+
+		BufferedImage result;
+		if (scaledWidth == previewWidth && scaledHeight == previewHeight) {
+			result = scaled;
+		} else {
+			// An image smaller than the preview size is centered in the preview.
+			result = new BufferedImage(previewWidth, previewHeight, scaled.getType());
+			Graphics2D g = result.createGraphics();
+			g.drawImage(scaled, (previewWidth - scaledWidth) / 2, (previewHeight - scaledHeight) / 2, null);
+			g.dispose();
+		}
+		if ("jpg".equals(imageType)) {
+			writeJpeg(result, preview, quality);
+		} else {
+			ImageIO.write(result, imageType, preview);
+		}
+	}
+
+	/**
+	 * Writes the given image as JPEG with the given quality.
+	 */
+	private static void writeJpeg(BufferedImage image, File preview, int quality) throws IOException {
+		ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
+
+		// As in ImageIO.write(), an existing file would not be truncated.
+		preview.delete();
+		try (ImageOutputStream out = ImageIO.createImageOutputStream(preview)) {
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionQuality(quality / 100f);
+			writer.setOutput(out);
+			writer.write(null, new IIOImage(image, null, null), param);
+		} finally {
+			writer.dispose();
+		}
+	}
+
+	/**
+	 * Reads the given image file decoding only every n-th pixel in each direction.
+	 *
+	 * <p>
+	 * Compared to {@link ImageIO#read(File)}, a subsampled read of a large photo requires only a fraction of the
+	 * memory and decoding time.
+	 * </p>
+	 *
+	 * @param file
+	 *        The image file to read.
+	 * @param subsampling
+	 *        The subsampling factor n, <code>1</code> to read the full image.
+	 */
+	private static BufferedImage readImage(File file, int subsampling) throws IOException {
+		try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+			if (in == null) {
+				throw new IOException("Cannot open image: " + file);
+			}
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+			if (!readers.hasNext()) {
+				throw new IOException("Unsupported image format: " + file);
+			}
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(in, true, true);
+				ImageReadParam param = reader.getDefaultReadParam();
+				param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+				return reader.read(0, param);
+			} finally {
+				reader.dispose();
+			}
+		}
+	}
+
+}
@@ -4,17 +4,33 @@
 package de.haumacher.imageServer;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.handler.HandlerCollection;
 import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.VirtualThreads;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.eclipse.jetty.webapp.WebAppContext;
 
+import de.haumacher.imageServer.cache.ImageData;
+import de.haumacher.imageServer.cache.ResourceCrawler;
 import de.haumacher.imageServer.shared.ui.Settings;
 import de.haumacher.util.servlet.ResourceServlet;
 import net.sourceforge.argparse4j.ArgumentParsers;
 import net.sourceforge.argparse4j.helper.HelpScreenException;
+import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.impl.type.FileArgumentType;
 import net.sourceforge.argparse4j.inf.Argument;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
@@ -29,11 +45,22 @@ import net.sourceforge.argparse4j.inf.Namespace;
  */
 public class Main {
 	
+	private static final Logger LOG = Logger.getLogger(Main.class.getName());
+	
 	/**
 	 * Prefix for resources served from <code>META-INF/resources</code>.
 	 */
 	public static final String STATIC_PREFIX = "";
 
+	private static final String JAVA2D_ENGINE = Java2DPreviewEngine.NAME;
+
+	private static final String OPENCV_ENGINE = OpenCVPreviewEngine.NAME;
+
+	/**
+	 * Name of the default metadata index directory in the central preview store.
+	 */
+	private static final String METADATA_INDEX_DIR = ".metadata";
+
 	/** 
 	 * Image server main method.
 	 */
@@ -48,6 +75,30 @@ public class Main {
 		parser.addArgument("-p", "--port").type(type).setDefault(8080).help("The port to start the server.");
 		parser.addArgument("-b", "--basepath").type(new FileArgumentType()).setDefault(new File(".")).help("The path containing albums to serve");
 		parser.addArgument("-c", "--contextpath").setDefault("").help("The context path the albums are available over HTTP");
+		parser.addArgument("--virtual-threads").action(Arguments.storeTrue()).help("Execute requests on virtual threads (requires Java 21 or newer)");
+		parser.addArgument("--carrier-threads").type(type).setDefault(0).help("The number of platform threads carrying virtual threads, 0 for the number of processors");
+		parser.addArgument("--max-threads").type(type).setDefault(200).help("The maximum number of platform threads in the server's thread pool");
+		parser.addArgument("--preview-concurrency").type(type).setDefault(Runtime.getRuntime().availableProcessors()).help("The maximum number of previews generated concurrently, 0 for no limit");
+		parser.addArgument("--analyze-concurrency").type(type).setDefault(2 * Runtime.getRuntime().availableProcessors()).help("The maximum number of files analyzed concurrently, 0 for no limit");
+		parser.addArgument("--preview-engine").choices(JAVA2D_ENGINE, OPENCV_ENGINE).setDefault(JAVA2D_ENGINE).help("The library decoding and scaling images for previews");
+		parser.addArgument("--nonblocking-previews").action(Arguments.storeTrue()).help("Answer requests for missing previews with a placeholder and create the preview in the background");
+		parser.addArgument("--preview-store").type(new FileArgumentType()).help("A central directory to store previews of all albums in, instead of a cache directory in each album");
+		parser.addArgument("--preview-store-quota").type(Long.class).setDefault(0L).help("The maximum size of the central preview store in megabytes, 0 for no limit");
+		parser.addArgument("--preview-store-gc").type(type).setDefault(24).help("The interval in hours for removing previews of deleted or modified images from the central preview store, 0 to never remove them");
+		parser.addArgument("--metadata-index").type(new FileArgumentType()).help("A central directory to store the metadata indexes of all albums in, defaults to '" + METADATA_INDEX_DIR + "' in the --preview-store directory, if one is given, otherwise indexes are stored in the cache directory of each album");
+		parser.addArgument("--packed-previews").action(Arguments.storeTrue()).help("Store the previews of each album in a single pack file instead of one file per preview (not combinable with --preview-store)");
+		parser.addArgument("--preview-memory").type(Long.class).setDefault(0L).help("The maximum size in megabytes of previews kept in memory in addition to the operating system's file cache, 0 to always read previews from storage");
+		parser.addArgument("--preview-memory-direct").action(Arguments.storeTrue()).help("Keep previews in memory outside the Java heap (limited by -XX:MaxDirectMemorySize)");
+		parser.addArgument("--migrate-previews").action(Arguments.storeTrue()).help("Walk all albums in the background for previews of outdated recipe versions and replace them (requested previews are always replaced)");
+		parser.addArgument("--preview-heights").type(type).nargs("+").setDefault(toList(Settings.PREVIEW_HEIGHTS)).help("The ladder of preview heights in pixels that clients can request");
+		parser.addArgument("--pregenerate-threads").type(type).setDefault(0).help("The number of threads generating previews of loaded albums in the background, e.g. half the number of processors, 0 to create previews only on demand");
+		parser.addArgument("--pregenerate-heights").type(type).nargs("+").setDefault(Arrays.asList(480)).help("The preview heights generated in the background, 0 for the default preview");
+		parser.addArgument("--pregenerate-queue").type(type).setDefault(10000).help("The maximum number of previews waiting for background generation");
+		parser.addArgument("--resource-cache").type(Long.class).setDefault(64L).help("The estimated heap memory in megabytes used for caching folder descriptions, large albums take more than small ones");
+		parser.addArgument("--crawl").action(Arguments.storeTrue()).help("Load all folders into the cache in the background after startup, most recently modified first");
+		parser.addArgument("--crawl-threads").type(type).setDefault(2).help("The number of folders loaded concurrently by the crawl");
+		parser.addArgument("--crawl-rate").type(Double.class).setDefault(0.0).help("The maximum number of folders loaded per second by the crawl, 0 for no limit");
+		parser.addArgument("--async-threshold").type(Long.class).setDefault(-1L).help("Minimum size in bytes of image and video data that is written in non-blocking mode, -1 to always write in blocking mode");
 
 		try {
 			Namespace ns = parser.parseArgs(args);
@@ -63,6 +114,30 @@ public class Main {
 	private final int _port;
 	private final String _contextPath;
 	private final File _basePath;
+	private final long _asyncThreshold;
+	private final boolean _virtualThreads;
+	private final int _carrierThreads;
+	private final int _maxThreads;
+	private final int _previewConcurrency;
+	private final int _analyzeConcurrency;
+	private final String _previewEngine;
+	private final boolean _nonblockingPreviews;
+	private final File _previewStore;
+	private final long _previewStoreQuota;
+	private final int _previewStoreGC;
+	private final File _metadataIndex;
+	private final boolean _packedPreviews;
+	private final long _previewMemory;
+	private final boolean _previewMemoryDirect;
+	private final boolean _migratePreviews;
+	private final List<Integer> _previewHeights;
+	private final int _pregenerateThreads;
+	private final List<Integer> _pregenerateHeights;
+	private final int _pregenerateQueue;
+	private final long _resourceCache;
+	private final boolean _crawl;
+	private final int _crawlThreads;
+	private final double _crawlRate;
 
 	/** 
 	 * Creates a {@link Main}.
@@ -71,10 +146,57 @@ public class Main {
 		_port = ns.getInt("port");
 		_basePath = ns.get("basepath");
 		_contextPath = normlizeContextPath(ns.get("contextpath"));
+		_asyncThreshold = ns.getLong("async_threshold");
+		_virtualThreads = ns.getBoolean("virtual_threads");
+		_carrierThreads = ns.getInt("carrier_threads");
+		_maxThreads = ns.getInt("max_threads");
+		_previewConcurrency = ns.getInt("preview_concurrency");
+		_analyzeConcurrency = ns.getInt("analyze_concurrency");
+		_previewEngine = ns.getString("preview_engine");
+		_nonblockingPreviews = ns.getBoolean("nonblocking_previews");
+		_previewStore = ns.get("preview_store");
+		_previewStoreQuota = ns.getLong("preview_store_quota");
+		_previewStoreGC = ns.getInt("preview_store_gc");
+		File metadataIndex = ns.get("metadata_index");
+		_metadataIndex = metadataIndex == null && _previewStore != null ? new File(_previewStore, METADATA_INDEX_DIR) : metadataIndex;
+		_packedPreviews = ns.getBoolean("packed_previews");
+		_previewMemory = ns.getLong("preview_memory");
+		_previewMemoryDirect = ns.getBoolean("preview_memory_direct");
+		_migratePreviews = ns.getBoolean("migrate_previews");
+		_previewHeights = ns.getList("preview_heights");
+		_pregenerateThreads = ns.getInt("pregenerate_threads");
+		_pregenerateHeights = ns.getList("pregenerate_heights");
+		_pregenerateQueue = ns.getInt("pregenerate_queue");
+		_resourceCache = ns.getLong("resource_cache");
+		_crawl = ns.getBoolean("crawl");
+		_crawlThreads = ns.getInt("crawl_threads");
+		_crawlRate = ns.getDouble("crawl_rate");
 	}
 	
 	private void start() throws Exception {
-		final Server server = new Server();
+		PreviewCache.GENERATION_LIMIT.setLimit(_previewConcurrency);
+		ImageData.ANALYZE_LIMIT.setLimit(_analyzeConcurrency);
+		PreviewCache.setPreviewHeights(toArray(_previewHeights));
+		PreviewCache.setEngine(createPreviewEngine());
+		if (_nonblockingPreviews) {
+			PreviewCache.setAsyncExecutor(createPreviewExecutor());
+		}
+		if (_previewStore != null) {
+			PreviewCache.setStore(createPreviewStore());
+			if (_packedPreviews) {
+				LOG.warning("Previews in the central store are not packed.");
+			}
+		} else {
+			PreviewCache.setPacked(_packedPreviews);
+		}
+		if (_previewMemory > 0) {
+			PreviewCache.setMemoryCache(new PreviewMemoryCache(_previewMemory << 20, _previewMemoryDirect));
+		}
+		PreviewMigration migration = new PreviewMigration(_migratePreviews ? _basePath : null);
+		PreviewCache.setMigration(migration);
+		migration.start();
+		
+		final Server server = new Server(createThreadPool());
 
 		ServerConnector connector = new ServerConnector(server);
 		connector.setPort(_port);
@@ -86,7 +208,16 @@ public class Main {
 		WebAppContext webapp = new WebAppContext();
 		webapp.setContextPath(_contextPath);
 		webapp.setResourceBase(_basePath.toString());
-		webapp.addServlet(new ServletHolder(new ImageServlet(_basePath)), Settings.DATA_PREFIX + "/*");
+		ImageServlet imageServlet = new ImageServlet(_basePath, _resourceCache << 20);
+		imageServlet.setAsyncThreshold(_asyncThreshold);
+		imageServlet.getResourceCache().setIndexDirectory(_metadataIndex);
+		if (_pregenerateThreads > 0) {
+			imageServlet.getResourceCache().setAlbumListener(new PreviewGenerator(_pregenerateThreads, _pregenerateQueue,
+				toArray(_pregenerateHeights)));
+		}
+		ServletHolder imageHolder = new ServletHolder(imageServlet);
+		imageHolder.setAsyncSupported(true);
+		webapp.addServlet(imageHolder, Settings.DATA_PREFIX + "/*");
 		webapp.addServlet(new ServletHolder(new ResourceServlet()), STATIC_PREFIX + "/*");
 		webapp.setClassLoader(Main.class.getClassLoader());
 
@@ -102,11 +233,89 @@ public class Main {
 		
 		server.setHandler(handlers);
 		server.start();
+		
+		if (_crawl) {
+			new ResourceCrawler(imageServlet.getResourceCache(), _basePath, _crawlThreads, _crawlRate).start();
+		}
 
 		System.out.println("Image server started: http://localhost:" + _port + _contextPath + "/ serving folder: " + _basePath);
 		server.join();	
 	}
 
+	private QueuedThreadPool createThreadPool() {
+		QueuedThreadPool threadPool = new QueuedThreadPool(_maxThreads);
+		threadPool.setName("valbum");
+		
+		if (_virtualThreads) {
+			if (VirtualThreads.areSupported()) {
+				if (_carrierThreads > 0) {
+					// Must be set before the first virtual thread is created.
+					System.setProperty("jdk.virtualThreadScheduler.parallelism", Integer.toString(_carrierThreads));
+					System.setProperty("jdk.virtualThreadScheduler.maxPoolSize", Integer.toString(_carrierThreads));
+				}
+				threadPool.setVirtualThreadsExecutor(VirtualThreads.getDefaultVirtualThreadsExecutor());
+				LOG.info("Executing requests on virtual threads.");
+			} else {
+				LOG.warning("Virtual threads are not supported by this Java runtime, executing requests on platform threads.");
+			}
+		}
+		return threadPool;
+	}
+
+	private PreviewEngine createPreviewEngine() {
+		if (OPENCV_ENGINE.equals(_previewEngine)) {
+			try {
+				PreviewEngine engine = new OpenCVPreviewEngine(Java2DPreviewEngine.INSTANCE);
+				LOG.info("Creating previews with OpenCV.");
+				return engine;
+			} catch (LinkageError | RuntimeException ex) {
+				// Native libraries or their Java bindings may be missing for this platform.
+				LOG.log(Level.WARNING, "OpenCV is not available on this platform, creating previews with Java2D.", ex);
+			}
+		}
+		return Java2DPreviewEngine.INSTANCE;
+	}
+
+	private ExecutorService createPreviewExecutor() {
+		// Generation is limited anyway, more threads would only wait for a permit.
+		int threads = _previewConcurrency > 0 ? _previewConcurrency : Runtime.getRuntime().availableProcessors();
+		AtomicInteger nextId = new AtomicInteger(1);
+		return Executors.newFixedThreadPool(threads, task -> {
+			Thread thread = new Thread(task, "preview-" + nextId.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	private PreviewStore createPreviewStore() throws IOException {
+		PreviewStore store = new PreviewStore(_previewStore, _previewStoreQuota << 20, PreviewCache::isCurrentVariant);
+		LOG.info("Storing previews in '" + _previewStore + "'.");
+		
+		if (_previewStoreGC > 0) {
+			ScheduledExecutorService gc = Executors.newSingleThreadScheduledExecutor(task -> {
+				Thread thread = new Thread(task, "preview-gc");
+				thread.setDaemon(true);
+				return thread;
+			});
+			gc.scheduleWithFixedDelay(() -> {
+				try {
+					store.collectGarbage();
+				} catch (IOException | RuntimeException ex) {
+					LOG.log(Level.WARNING, "Garbage collection of preview store failed.", ex);
+				}
+			}, 1, TimeUnit.HOURS.toMinutes(_previewStoreGC), TimeUnit.MINUTES);
+		}
+		return store;
+	}
+
+	private static List<Integer> toList(int[] values) {
+		return Arrays.stream(values).boxed().collect(Collectors.toList());
+	}
+
+	private static int[] toArray(List<Integer> values) {
+		return values.stream().mapToInt(Integer::intValue).toArray();
+	}
+
 	private String normlizeContextPath(String contextPath) {
 		if (!contextPath.isEmpty()) {
 			if (!contextPath.startsWith("/")) {
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2026 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package de.haumacher.imageServer;
+
+import static org.bytedeco.opencv.global.opencv_core.*;
+import static org.bytedeco.opencv.global.opencv_imgcodecs.*;
+import static org.bytedeco.opencv.global.opencv_imgproc.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.IntPointer;
+import org.bytedeco.javacpp.Loader;
+import org.bytedeco.javacpp.PointerScope;
+import org.bytedeco.opencv.global.opencv_imgcodecs;
+import org.bytedeco.opencv.global.opencv_imgproc;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Scalar;
+import org.bytedeco.opencv.opencv_core.Size;
+
+import de.haumacher.imageServer.shared.model.Orientation;
+import de.haumacher.imageServer.shared.util.Orientations;
+
+/**
+ * {@link PreviewEngine} decoding, scaling and encoding JPEG images with the native OpenCV library.
+ *
+ * <p>
+ * JPEG images are decoded at reduced resolution (1/2, 1/4 or 1/8) directly by the JPEG decoder and scaled down with
+ * area interpolation. Previews are encoded as JPEG or WebP. PNG images are passed to a fallback engine, since
+ * OpenCV's color modes drop transparency.
+ * </p>
+ */
+public class OpenCVPreviewEngine implements PreviewEngine {
+
+	/**
+	 * The {@link #getName(String) name} of this engine.
+	 */
+	public static final String NAME = "opencv";
+
+	private final PreviewEngine _fallback;
+
+	/**
+	 * Creates a {@link OpenCVPreviewEngine}.
+	 *
+	 * @param fallback
+	 *        The engine for images not handled by OpenCV.
+	 * @throws UnsatisfiedLinkError
+	 *         If the native OpenCV libraries are not available on this platform.
+	 */
+	public OpenCVPreviewEngine(PreviewEngine fallback) {
+		_fallback = fallback;
+
+		// Fail at startup instead of with the first preview.
+		Loader.load(opencv_imgcodecs.class);
+		Loader.load(opencv_imgproc.class);
+	}
+
+	@Override
+	public boolean supports(String imageType) {
+		return "webp".equals(imageType) || _fallback.supports(imageType);
+	}
+
+	@Override
+	public String getName(String imageType) {
+		return encoderParams(imageType, 0) == null ? _fallback.getName(imageType) : NAME;
+	}
+
+	@Override
+	public void writePreview(File file, File preview, String imageType, int quality, Orientation orientation,
+			int subsampling, int previewWidth, int previewHeight) throws IOException {
+		int[] params = encoderParams(imageType, quality);
+		if (params == null) {
+			_fallback.writePreview(file, preview, imageType, quality, orientation, subsampling, previewWidth,
+				previewHeight);
+			return;
+		}
+
+		byte[] data = Files.readAllBytes(file.toPath());
+		byte[] result;
+		try (PointerScope scope = new PointerScope()) {
+			Mat encoded = new Mat(1, data.length, CV_8UC1, new BytePointer(data));
+
+			// Orientation is applied after scaling, where it is cheap.
+			Mat decoded = imdecode(encoded, reducedMode(subsampling) | IMREAD_IGNORE_ORIENTATION);
+			if (decoded == null || decoded.empty()) {
+				throw new IOException("Cannot decode image: " + file);
+			}
+
+			// The decoded image may be slightly smaller than the original divided by the reduction factor.
+			int scaledWidth = Math.min(previewWidth, Orientations.width(orientation, decoded.cols(), decoded.rows()));
+			int scaledHeight = Math.min(previewHeight, Orientations.height(orientation, decoded.cols(), decoded.rows()));
+			int rawWidth = Orientations.width(orientation, scaledWidth, scaledHeight);
+			int rawHeight = Orientations.height(orientation, scaledWidth, scaledHeight);
+
+			Mat scaled;
+			if (rawWidth == decoded.cols() && rawHeight == decoded.rows()) {
+				scaled = decoded;
+			} else {
+				scaled = new Mat();
+				resize(decoded, scaled, new Size(rawWidth, rawHeight), 0, 0, INTER_AREA);
+			}
+
+			Mat oriented = orient(scaled, orientation);
+
+			Mat image;
+			if (scaledWidth == previewWidth && scaledHeight == previewHeight) {
+				image = oriented;
+			} else {
+				// An image smaller than the preview size is centered in the preview.
+				int left = (previewWidth - scaledWidth) / 2;
+				int top = (previewHeight - scaledHeight) / 2;
+				image = new Mat();
+				copyMakeBorder(oriented, image, top, previewHeight - scaledHeight - top, left,
+					previewWidth - scaledWidth - left, BORDER_CONSTANT, new Scalar(0.0));
+			}
+
+			BytePointer buffer = new BytePointer();
+			if (!imencode("." + imageType, image, buffer, new IntPointer(params))) {
+				throw new IOException("Cannot encode preview of: " + file);
+			}
+			result = new byte[(int) buffer.limit()];
+			buffer.get(result);
+		}
+		Files.write(preview.toPath(), result);
+	}
+
+	/**
+	 * The OpenCV encoder parameters for the given preview format, <code>null</code> if the format is not encoded by
+	 * OpenCV.
+	 */
+	private static int[] encoderParams(String imageType, int quality) {
+		switch (imageType) {
+			case "jpg":
+				return new int[] { IMWRITE_JPEG_QUALITY, quality };
+			case "webp":
+				return new int[] { IMWRITE_WEBP_QUALITY, quality };
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * The OpenCV read mode decoding with the largest reduction supported by the JPEG decoder that does not exceed the
+	 * given subsampling factor.
+	 */
+	private static int reducedMode(int subsampling) {
+		if (subsampling >= 8) {
+			return IMREAD_REDUCED_COLOR_8;
+		} else if (subsampling >= 4) {
+			return IMREAD_REDUCED_COLOR_4;
+		} else if (subsampling >= 2) {
+			return IMREAD_REDUCED_COLOR_2;
+		} else {
+			return IMREAD_COLOR;
+		}
+	}
+
+	/**
+	 * Transforms the given raw image to display orientation.
+	 */
+	private static Mat orient(Mat raw, Orientation orientation) {
+		Mat result = new Mat();
+		switch (orientation) {
+			case IDENTITY:
+				return raw;
+			case FLIP_H:
+				flip(raw, result, 1);
+				break;
+			case ROT_180:
+				rotate(raw, result, ROTATE_180);
+				break;
+			case FLIP_V:
+				flip(raw, result, 0);
+				break;
+			case ROT_L_FLIP_V:
+				transpose(raw, result);
+				break;
+			case ROT_L:
+				rotate(raw, result, ROTATE_90_CLOCKWISE);
+				break;
+			case ROT_L_FLIP_H:
+				Mat transposed = new Mat();
+				transpose(raw, transposed);
+				flip(transposed, result, -1);
+				break;
+			case ROT_R:
+				rotate(raw, result, ROTATE_90_COUNTERCLOCKWISE);
+				break;
+		}
+		return result;
+	}
+
+}
@@ -65,6 +65,13 @@ public class PathInfo {
 		return new PathInfo(_basePath, _path.getParent());
 	}
 
+	/**
+	 * The path of the entry with the given name in the directory represented by this path.
+	 */
+	public PathInfo child(String name) {
+		return new PathInfo(_basePath, _path == null ? _basePath.getFileSystem().getPath(name) : _path.resolve(name));
+	}
+
 	/** 
 	 * The {@link File} represented by this {@link PathInfo}.
 	 */
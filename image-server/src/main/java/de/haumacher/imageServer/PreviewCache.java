@@ -3,17 +3,24 @@
  */
 package de.haumacher.imageServer;
 
-import java.awt.Graphics2D;
-import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -29,11 +36,15 @@ import com.drew.imaging.ImageProcessingException;
 import com.drew.metadata.Metadata;
 import com.drew.metadata.MetadataException;
 import com.drew.metadata.exif.ExifIFD0Directory;
+import com.drew.metadata.exif.ExifThumbnailDirectory;
 import com.drew.metadata.jpeg.JpegDirectory;
 import com.drew.metadata.mp4.Mp4Directory;
 import com.drew.metadata.png.PngDirectory;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 import de.haumacher.imageServer.shared.model.Orientation;
+import de.haumacher.imageServer.shared.ui.Settings;
 import de.haumacher.imageServer.shared.ui.layout.Content;
 import de.haumacher.imageServer.shared.util.Orientations;
 import de.haumacher.util.servlet.Util;
@@ -45,6 +56,8 @@ import de.haumacher.util.servlet.Util;
  */
 public class PreviewCache {
 
+	private static final Logger LOG = Logger.getLogger(PreviewCache.class.getName());
+
 	private static final String MP4 = "mp4";
 
 	private static final String PNG = "png";
@@ -53,62 +66,690 @@ public class PreviewCache {
 
 	private static final String JPG = "jpg";
 	
+	/**
+	 * Preview format offered to clients that accept it, if supported by the {@link #getEngine() engine}.
+	 */
+	public static final String WEBP = "webp";
+	
 	public static final Set<String> SUPPORTED_EXTENSIONS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(JPG, JPEG, PNG, MP4)));
 
 	private static final int PREVIEW_HEIGHT = 600;
 	
 	private static final int PREVIEW_HEIGHT_PORTRAIT = 2 * PREVIEW_HEIGHT;
 	
-	private static final long LAST_UPDATE = lastUpdate();
+	private static volatile int[] _previewHeights = Settings.PREVIEW_HEIGHTS.clone();
+	
+	private static volatile PreviewEngine _engine = Java2DPreviewEngine.INSTANCE;
+	
+	private static volatile Executor _asyncExecutor;
+	
+	private static volatile PreviewStore _store;
+	
+	private static volatile boolean _packed;
+	
+	private static volatile PreviewMemoryCache _memory;
+	
+	private static volatile PreviewMigration _migration;
+	
+	/**
+	 * Prefix of temporary files, a preview is written to before it is published.
+	 */
+	private static final String TMP_PREFIX = ".tmp-preview-";
 
 	/**
-	 * Time of the last update that required to re-build preview images.
+	 * Prefix of the names of previews in an album's preview cache.
 	 */
-	public static long lastUpdate() {
-		try {
-			return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss zzzz").parse("2022-05-15 13:30:00 MEST").getTime();
-		} catch (ParseException ex) {
-			Logger.getLogger(PreviewCache.class.getName()).log(Level.WARNING, "Failed to parse update time.", ex);
-			return 0L;
+	private static final String PREVIEW_PREFIX = "preview-";
+	
+	/**
+	 * Name of the default preview variant in a {@link PreviewStore}.
+	 */
+	private static final String DEFAULT_VARIANT = "default";
+	
+	/**
+	 * Generations currently running indexed by the preview file being created.
+	 */
+	private static final ConcurrentMap<File, FutureTask<PreviewData>> IN_FLIGHT = new ConcurrentHashMap<>();
+	
+	/**
+	 * Failed generations indexed by the preview file that could not be created.
+	 * 
+	 * <p>
+	 * Further requests for a broken original are answered with an error instead of decoding it again. A failure is
+	 * forgotten, when the original is modified, or after some time, since the cause may have been temporary.
+	 * </p>
+	 */
+	private static final Cache<File, Failure> FAILURES = CacheBuilder.newBuilder()
+		.maximumSize(10000)
+		.expireAfterWrite(1, TimeUnit.HOURS)
+		.build();
+	
+	/**
+	 * Limit for the number of previews being generated concurrently.
+	 */
+	public static final ConcurrencyLimit GENERATION_LIMIT = new ConcurrencyLimit("Preview generation");
+	
+	static {
+		// Required for extracting micro previews.
+		ExifReaderPatch.install();
+	}
+
+	/**
+	 * The configured ladder of preview heights in ascending order.
+	 */
+	public static int[] getPreviewHeights() {
+		return _previewHeights.clone();
+	}
+
+	/**
+	 * Sets the ladder of preview heights that can be requested.
+	 *
+	 * @param heights
+	 *        The preview heights in pixels, must not be empty.
+	 * @see #previewHeight(int)
+	 */
+	public static void setPreviewHeights(int[] heights) {
+		int[] sorted = Arrays.stream(heights).filter(h -> h > 0).sorted().distinct().toArray();
+		if (sorted.length == 0) {
+			throw new IllegalArgumentException("No preview heights given.");
 		}
+		_previewHeights = sorted;
 	}
-	
+
+	/**
+	 * The {@link PreviewEngine} creating image previews.
+	 */
+	public static PreviewEngine getEngine() {
+		return _engine;
+	}
+
+	/**
+	 * Sets the {@link PreviewEngine} creating image previews.
+	 */
+	public static void setEngine(PreviewEngine engine) {
+		_engine = engine;
+	}
+
+	/**
+	 * The central {@link PreviewStore}, <code>null</code> if previews are stored in the album directories.
+	 */
+	public static PreviewStore getStore() {
+		return _store;
+	}
+
+	/**
+	 * Sets the central {@link PreviewStore}.
+	 * 
+	 * @param store
+	 *        The store for all previews, <code>null</code> to store previews in a cache directory within each album.
+	 */
+	public static void setStore(PreviewStore store) {
+		_store = store;
+	}
+
+	/**
+	 * Whether previews are appended to a {@link PreviewPack} per album instead of being stored in files of their own.
+	 */
+	public static boolean isPacked() {
+		return _packed;
+	}
+
+	/**
+	 * Sets whether previews are appended to a {@link PreviewPack} per album.
+	 * 
+	 * <p>
+	 * Has no effect, if a central {@link #setStore(PreviewStore) store} is used.
+	 * </p>
+	 */
+	public static void setPacked(boolean packed) {
+		_packed = packed;
+	}
+
+	/**
+	 * The {@link PreviewMemoryCache} keeping frequently requested previews in memory, <code>null</code> if previews
+	 * are always read from storage.
+	 */
+	public static PreviewMemoryCache getMemoryCache() {
+		return _memory;
+	}
+
+	/**
+	 * Sets the {@link PreviewMemoryCache}.
+	 */
+	public static void setMemoryCache(PreviewMemoryCache memory) {
+		_memory = memory;
+	}
+
+	/**
+	 * Drops previews of the given original from memory.
+	 * 
+	 * <p>
+	 * Previews in storage are re-created anyway, when they are older than their original.
+	 * </p>
+	 */
+	public static void invalidate(File original) {
+		PreviewMemoryCache memory = _memory;
+		if (memory != null) {
+			memory.invalidate(original);
+		}
+	}
+
+	/**
+	 * The {@link PreviewMigration} replacing previews of outdated recipes, <code>null</code> if outdated previews are
+	 * re-created when requested.
+	 */
+	public static PreviewMigration getMigration() {
+		return _migration;
+	}
+
+	/**
+	 * Sets the {@link PreviewMigration}.
+	 * 
+	 * <p>
+	 * With a migration, a preview of an outdated {@link PreviewRecipe recipe} is delivered as long as its replacement
+	 * has not been created in the background.
+	 * </p>
+	 */
+	public static void setMigration(PreviewMigration migration) {
+		_migration = migration;
+	}
+
+	/**
+	 * Whether the given variant with format suffix, e.g. <code>h480.webp</code>, as recorded in a
+	 * {@link PreviewStore}, is created with a current recipe.
+	 */
+	public static boolean isCurrentVariant(String variant) {
+		int dot = variant.lastIndexOf('.');
+		if (dot < 0) {
+			return false;
+		}
+		String key = variant.substring(0, dot);
+		String imageType = variant.substring(dot + 1);
+		return PreviewRecipe.isCurrent(DEFAULT_VARIANT.equals(key) ? "" : key, imageType, _engine.getName(imageType));
+	}
+
+	/**
+	 * Sets the executor creating previews requested through {@link #requestPreview(File, int, boolean)}.
+	 * 
+	 * @param executor
+	 *        The executor for preview creation, <code>null</code> to create previews in the requesting thread.
+	 */
+	public static void setAsyncExecutor(Executor executor) {
+		_asyncExecutor = executor;
+	}
+
+	/**
+	 * The height of the preview to deliver for the requested height.
+	 *
+	 * <p>
+	 * The requested height is rounded up to the next height of the configured ladder, so that only a bounded number
+	 * of preview variants is generated per image. Requests exceeding the largest height are served with the largest
+	 * preview.
+	 * </p>
+	 */
+	public static int previewHeight(int requested) {
+		int[] heights = _previewHeights;
+		for (int height : heights) {
+			if (height >= requested) {
+				return height;
+			}
+		}
+		return heights[heights.length - 1];
+	}
+
 	/** 
 	 * Lookup or creates the preview data for the given image or video file.
 	 */
-	public static File createPreview(File file) throws PreviewException {
+	public static PreviewData createPreview(File file) throws PreviewException {
+		return createPreview(file, 0);
+	}
+
+	/** 
+	 * Lookup or creates the preview data of a certain height for the given image or video file.
+	 * 
+	 * @param file
+	 *        The image or video file.
+	 * @param requestedHeight
+	 *        The requested preview height in pixels, rounded up to the next {@link #previewHeight(int) configured
+	 *        height}. A value of zero requests the default preview.
+	 */
+	public static PreviewData createPreview(File file, int requestedHeight) throws PreviewException {
+		return createPreview(file, requestedHeight, false);
+	}
+
+	/** 
+	 * Lookup or creates the preview data of a certain height and format for the given image or video file.
+	 * 
+	 * @param file
+	 *        The image or video file.
+	 * @param requestedHeight
+	 *        The requested preview height in pixels, rounded up to the next {@link #previewHeight(int) configured
+	 *        height}. A value of zero requests the default preview.
+	 * @param webp
+	 *        Whether the client accepts a {@link #WEBP} preview. WebP previews are created for JPEG images only, if
+	 *        the configured {@link #getEngine() engine} supports it. Otherwise, the JPEG or PNG preview is returned.
+	 */
+	public static PreviewData createPreview(File file, int requestedHeight, boolean webp) throws PreviewException {
+		return preview(file, requestedHeight, webp, null);
+	}
+
+	/**
+	 * Looks up the preview of a certain height and format without waiting for its creation, if an
+	 * {@link #setAsyncExecutor(Executor) asynchronous executor} is configured.
+	 * 
+	 * <p>
+	 * Without an asynchronous executor, the preview is created in the calling thread as in
+	 * {@link #createPreview(File, int, boolean)}.
+	 * </p>
+	 * 
+	 * @return The preview, or <code>null</code>, if the preview does not yet exist and is being created in the
+	 *         background.
+	 * @throws PreviewException
+	 *         If the preview cannot be created, also if its creation already failed in the background before.
+	 * 
+	 * @see #createPreview(File, int, boolean)
+	 */
+	public static PreviewData requestPreview(File file, int requestedHeight, boolean webp) throws PreviewException {
+		return preview(file, requestedHeight, webp, _asyncExecutor);
+	}
+
+	private static PreviewData preview(File file, int requestedHeight, boolean webp, Executor executor) throws PreviewException {
+		return lookupPreview(file, recipe(file, requestedHeight, webp), executor, true);
+	}
+
+	/**
+	 * The current recipe for a preview of the given file.
+	 * 
+	 * @see #createPreview(File, int, boolean)
+	 */
+	static PreviewRecipe recipe(File file, int requestedHeight, boolean webp) {
+		String suffix = Util.suffix(file.getName());
+		String imageType = webp && (JPG.equals(suffix) || JPEG.equals(suffix)) && _engine.supports(WEBP) ? WEBP : imageType(suffix);
+		
+		int height = requestedHeight > 0 ? previewHeight(requestedHeight) : 0;
+		return PreviewRecipe.preview(height, imageType, _engine.getName(imageType));
+	}
+
+	/**
+	 * Creates the preview of the given file with the given current recipe, if it does not yet exist, even if a preview
+	 * of an older version of the recipe exists.
+	 * 
+	 * @see PreviewMigration
+	 */
+	static void migrate(File file, PreviewRecipe recipe) throws PreviewException {
+		lookupPreview(file, recipe, null, false);
+	}
+
+	/**
+	 * Whether only a preview of an older version of the given current recipe exists for the given file.
+	 */
+	static boolean isMigrationPending(File file, PreviewRecipe recipe) throws PreviewException {
+		return isOutdated(file, location(file, recipe)) && staleLocation(file, recipe) != null;
+	}
+
+	/** 
+	 * Lookup or creates the micro preview of the given image file.
+	 * 
+	 * <p>
+	 * The micro preview is the thumbnail embedded into the EXIF data of a JPEG image. It is extracted without decoding
+	 * the image itself and can therefore be delivered while the regular preview is still being created. The micro
+	 * preview is not subject to the {@link #GENERATION_LIMIT}.
+	 * </p>
+	 * 
+	 * @return The micro preview in JPEG format. An empty preview, if the image has no embedded thumbnail.
+	 */
+	public static PreviewData createMicroPreview(File file) throws PreviewException {
+		return lookupPreview(file, PreviewRecipe.micro(), null, true);
+	}
+
+	/**
+	 * Looks up an existing up-to-date JPEG or PNG preview of the given file without creating one.
+	 * 
+	 * <p>
+	 * Previews of older recipe versions are accepted.
+	 * </p>
+	 * 
+	 * @return The smallest existing preview, or <code>null</code>, if no preview has been created yet.
+	 */
+	public static PreviewData findPreview(File file) throws PreviewException {
+		String imageType = imageType(Util.suffix(file.getName()));
+		String engine = _engine.getName(imageType);
+		for (int height : _previewHeights) {
+			PreviewData result = findPreview(file, PreviewRecipe.preview(height, imageType, engine));
+			if (result != null) {
+				return result;
+			}
+		}
+		return findPreview(file, PreviewRecipe.preview(0, imageType, engine));
+	}
+
+	/**
+	 * Opens the {@link #findPreview(File) smallest existing preview} of the given file.
+	 * 
+	 * @return The preview contents, or <code>null</code>, if no preview has been created yet.
+	 * 
+	 * @see de.haumacher.imageServer.cache.PreviewLookup
+	 */
+	public static InputStream openPreview(File file) throws IOException {
+		PreviewData preview;
+		try {
+			preview = findPreview(file);
+		} catch (PreviewException ex) {
+			throw new IOException(ex.getMessage(), ex);
+		}
+		return preview == null ? null : preview.open();
+	}
+
+	private static PreviewData findPreview(File file, PreviewRecipe recipe) throws PreviewException {
+		Location location = location(file, recipe);
+		if (isOutdated(file, location)) {
+			location = staleLocation(file, recipe);
+		}
+		return location == null ? null : location.data();
+	}
+
+	/**
+	 * The location of an up-to-date preview of the given file created with an older version of the given recipe,
+	 * <code>null</code> if there is none.
+	 */
+	private static Location staleLocation(File file, PreviewRecipe recipe) throws PreviewException {
+		for (int version = recipe.getVersion() - 1; version > 0; version--) {
+			Location location = location(file, recipe.withVersion(version));
+			if (!isOutdated(file, location)) {
+				return location;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * The location of the preview of the given file created with the given recipe.
+	 */
+	private static Location location(File file, PreviewRecipe recipe) {
+		String variant = recipe.getKey();
+		String imageType = recipe.getImageType();
+		PreviewStore store = _store;
+		if (store != null) {
+			String storeVariant = variant.isEmpty() ? DEFAULT_VARIANT : variant;
+			return new Location(store.entry(file, storeVariant, imageType), store, storeVariant, null, null);
+		}
+		
 		String fileName = file.getName();
 		String suffix = Util.suffix(fileName);
-		String imageType = imageType(suffix);
-		
+		String previewName = PREVIEW_PREFIX + fileName + (imageType.equals(suffix) ? "" : "." + imageType);
 		File cacheDir = new File(file.getParentFile(), ".vacache");
-		File previewCache = new File(cacheDir, "preview-" + fileName + (suffix.equals(imageType) ? "" : "." + imageType));
-		if (!previewCache.exists() || file.lastModified() > previewCache.lastModified() || previewCache.lastModified() < LAST_UPDATE) {
-			if (!cacheDir.exists()) {
-				cacheDir.mkdir();
+		if (_packed) {
+			String name = variant.isEmpty() ? previewName : variant + "/" + previewName;
+			return new Location(new File(cacheDir, name), null, null, PreviewPack.forDirectory(cacheDir,
+				packed -> hasOriginal(file.getParentFile(), packed)), name);
+		}
+		if (!variant.isEmpty()) {
+			cacheDir = new File(cacheDir, variant);
+		}
+		return new Location(new File(cacheDir, previewName), null, null, null, null);
+	}
+
+	/**
+	 * Whether the original of the packed preview with the given name still exists in the given album directory.
+	 */
+	static boolean hasOriginal(File album, String packed) {
+		String previewName = packed.substring(packed.lastIndexOf('/') + 1);
+		if (!previewName.startsWith(PREVIEW_PREFIX)) {
+			return true;
+		}
+		String fileName = previewName.substring(PREVIEW_PREFIX.length());
+		if (new File(album, fileName).exists()) {
+			return true;
+		}
+		int typeSeparator = fileName.lastIndexOf('.');
+		return typeSeparator > 0 && new File(album, fileName.substring(0, typeSeparator)).exists();
+	}
+
+	/**
+	 * Returns the preview created with the given recipe, after creating it, if it does not exist or is outdated.
+	 * 
+	 * <p>
+	 * Concurrent requests for the same preview wait for a single generation.
+	 * </p>
+	 * 
+	 * @param executor
+	 *        The executor to create a missing preview with, <code>null</code> to create it in the calling thread.
+	 * @param acceptStale
+	 *        Whether to deliver a preview of an older recipe version instead and schedule its replacement with the
+	 *        {@link #getMigration() migration}, if there is one.
+	 * @return The preview, <code>null</code> if the preview is being created by the given executor.
+	 */
+	private static PreviewData lookupPreview(File file, PreviewRecipe recipe, Executor executor, boolean acceptStale) throws PreviewException {
+		Location location = location(file, recipe);
+		PreviewMigration migration = _migration;
+		if (acceptStale && migration != null && isOutdated(file, location)) {
+			Location stale = staleLocation(file, recipe);
+			if (stale != null) {
+				migration.schedule(file, recipe);
+				location = stale;
 			}
-			switch (suffix) {
-				case JPG:
-				case JPEG:
-				case PNG:
+		}
+		return lookupPreview(file, location, writer(file, recipe), executor);
+	}
+
+	/**
+	 * Returns the preview at the given location, after creating it, if it does not exist or is outdated.
+	 */
+	private static PreviewData lookupPreview(File file, Location location, PreviewWriter writer, Executor executor) throws PreviewException {
+		File previewCache = location._file;
+
+		// Packed previews are already served from memory.
+		PreviewMemoryCache memory = location._pack == null ? _memory : null;
+		long originalModified = file.lastModified();
+		if (memory != null) {
+			PreviewData cached = memory.get(previewCache, originalModified);
+			if (cached != null) {
+				if (location._store != null) {
+					location._store.accessed(previewCache);
+				}
+				return cached;
+			}
+		}
+		
+		if (isOutdated(file, location)) {
+			Failure failure = FAILURES.getIfPresent(previewCache);
+			if (failure != null && failure._originalModified == originalModified) {
+				throw new PreviewException(failure._message);
+			}
+
+			FutureTask<PreviewData> generation = new FutureTask<>(() -> {
+				// The preview may have been published by a generation that completed just before this one was
+				// registered.
+				if (isOutdated(file, location)) {
 					try {
-						createImagePreview(file, previewCache, imageType);
-					} catch (ImageProcessingException | MetadataException | IOException ex) {
-						throw new PreviewException("Cannot create image preview for '" + fileName  + "'.", ex);
+						generatePreview(file, location, writer);
+					} catch (PreviewException | RuntimeException ex) {
+						FAILURES.put(previewCache, new Failure(originalModified,
+							"Preview of '" + file.getName() + "' failed before: " + ex.getMessage()));
+						throw ex;
 					}
-					break;
-				case MP4:
+					FAILURES.invalidate(previewCache);
+				}
+				return location.data();
+			});
+			
+			FutureTask<PreviewData> running = IN_FLIGHT.putIfAbsent(previewCache, generation);
+			if (running == null) {
+				if (executor != null) {
 					try {
-						createVideoPreview(file, previewCache);
-					} catch (ImageProcessingException | MetadataException | IOException ex) {
-						throw new PreviewException("Cannot create video preview for '" + fileName  + "'.", ex);
+						executor.execute(() -> {
+							runGeneration(previewCache, generation);
+							try {
+								generation.get();
+							} catch (InterruptedException | ExecutionException ex) {
+								// Nobody is waiting for the result.
+								LOG.log(Level.WARNING, "Cannot create preview for '" + file.getName() + "'.", ex);
+							}
+						});
+						return null;
+					} catch (RejectedExecutionException ex) {
+						// Shutting down, create inline.
 					}
-					break;
-				default:
-					throw new PreviewException("Unsupported format: " + fileName);
+				}
+				runGeneration(previewCache, generation);
+				running = generation;
+			} else if (executor != null && !running.isDone()) {
+				return null;
 			}
+			
+			return remember(memory, previewCache, file, originalModified, await(running, file));
+		}
+		if (location._store != null) {
+			location._store.accessed(previewCache);
+		}
+		return remember(memory, previewCache, file, originalModified, location.data());
+	}
+
+	private static PreviewData remember(PreviewMemoryCache memory, File previewCache, File file,
+			long originalModified, PreviewData data) throws PreviewException {
+		if (memory == null) {
+			return data;
+		}
+		try {
+			return memory.put(previewCache, file, originalModified, data);
+		} catch (IOException ex) {
+			throw new PreviewException("Cannot read preview of '" + file.getName() + "'.", ex);
+		}
+	}
+
+	private static void runGeneration(File previewCache, FutureTask<PreviewData> generation) {
+		try {
+			generation.run();
+		} finally {
+			IN_FLIGHT.remove(previewCache, generation);
+		}
+	}
+
+	private static boolean isOutdated(File file, Location location) throws PreviewException {
+		long previewModified = location.lastModified();
+		
+		// Note: The last modified date is zero, if the preview does not exist.
+		return previewModified == 0L || file.lastModified() > previewModified;
+	}
+
+	private static PreviewData await(FutureTask<PreviewData> generation, File file) throws PreviewException {
+		try {
+			return generation.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new PreviewException("Interrupted while waiting for preview of '" + file.getName() + "'.", ex);
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof PreviewException) {
+				throw (PreviewException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new PreviewException("Cannot create preview for '" + file.getName() + "'.", cause);
+		}
+	}
+
+	/**
+	 * Creates the preview in a temporary file and atomically publishes it at the given location.
+	 * 
+	 * <p>
+	 * Concurrent readers either see the complete old or the complete new preview, never a partially written one.
+	 * </p>
+	 */
+	private static void generatePreview(File file, Location location, PreviewWriter writer) throws PreviewException {
+		File tmpDir = location.tmpDir();
+		if (!tmpDir.exists()) {
+			tmpDir.mkdirs();
+		}
+		File tmp;
+		try {
+			tmp = File.createTempFile(TMP_PREFIX, ".tmp", tmpDir);
+		} catch (IOException ex) {
+			throw new PreviewException("Cannot create temporary preview file for '" + file.getName() + "'.", ex);
+		}
+		try {
+			writer.write(tmp);
+			location.publish(file, tmp);
+		} catch (IOException ex) {
+			throw new PreviewException("Cannot publish preview for '" + file.getName() + "'.", ex);
+		} finally {
+			tmp.delete();
+		}
+	}
+
+	/**
+	 * The algorithm writing a preview with the given recipe.
+	 */
+	private static PreviewWriter writer(File file, PreviewRecipe recipe) {
+		String suffix = Util.suffix(file.getName());
+		if (PreviewRecipe.MICRO.equals(recipe.getVariant())) {
+			return tmp -> writeMicroPreview(file, tmp, suffix);
+		}
+		return tmp -> {
+			try (ConcurrencyLimit.Permit permit = GENERATION_LIMIT.enter()) {
+				writePreview(file, tmp, suffix, recipe);
+			}
+		};
+	}
+
+	private static void writePreview(File file, File previewCache, String suffix, PreviewRecipe recipe) throws PreviewException {
+		String fileName = file.getName();
+		switch (suffix) {
+			case JPG:
+			case JPEG:
+			case PNG:
+				try {
+					createImagePreview(file, previewCache, recipe);
+				} catch (ImageProcessingException | MetadataException | IOException ex) {
+					throw new PreviewException("Cannot create image preview for '" + fileName  + "'.", ex);
+				}
+				break;
+			case MP4:
+				try {
+					createVideoPreview(file, previewCache, recipe.getHeight());
+				} catch (ImageProcessingException | MetadataException | IOException ex) {
+					throw new PreviewException("Cannot create video preview for '" + fileName  + "'.", ex);
+				}
+				break;
+			default:
+				throw new PreviewException("Unsupported format: " + fileName);
+		}
+	}
+
+	private static void writeMicroPreview(File file, File previewCache, String suffix) throws PreviewException {
+		try {
+			byte[] thumbnail = null;
+			Orientation orientation = Orientation.IDENTITY;
+			if (JPG.equals(suffix) || JPEG.equals(suffix)) {
+				Metadata metadata = ImageMetadataReader.readMetadata(file);
+				ExifThumbnailDirectory thumbnailDirectory = metadata.getFirstDirectoryOfType(ExifThumbnailDirectory.class);
+				if (thumbnailDirectory != null) {
+					thumbnail = (byte[]) thumbnailDirectory.getObject(ExifReaderPatch.TAG_THUMBNAIL_DATA);
+				}
+				orientation = Orientations.fromCode(getImageOrientation(metadata));
+			}
+			
+			if (thumbnail == null) {
+				// Remember that there is no thumbnail.
+				Files.write(previewCache.toPath(), new byte[0]);
+			} else if (orientation == Orientation.IDENTITY) {
+				Files.write(previewCache.toPath(), thumbnail);
+			} else {
+				BufferedImage image = ImageIO.read(new ByteArrayInputStream(thumbnail));
+				if (image == null) {
+					throw new IOException("Cannot decode embedded thumbnail.");
+				}
+				int width = Orientations.width(orientation, image.getWidth(), image.getHeight());
+				int height = Orientations.height(orientation, image.getWidth(), image.getHeight());
+				ImageIO.write(ImageScaler.scale(image, orientation, width, height), JPG, previewCache);
+			}
+		} catch (ImageProcessingException | MetadataException | IOException ex) {
+			throw new PreviewException("Cannot create micro preview for '" + file.getName()  + "'.", ex);
 		}
-		return previewCache;
 	}
 
 	private static String imageType(String suffix) {
@@ -118,8 +759,9 @@ public class PreviewCache {
 		return JPG;
 	}
 
-	private static void createImagePreview(File file, File previewCache, String imgType)
+	private static void createImagePreview(File file, File previewCache, PreviewRecipe recipe)
 			throws ImageProcessingException, IOException, MetadataException {
+		int height = recipe.getHeight();
 		Metadata metadata = ImageMetadataReader.readMetadata(file);
 		ImageDimension dimension = getImageDimension(metadata);
 		
@@ -129,73 +771,24 @@ public class PreviewCache {
 		int previewHeight;
 
 		double unitWidth = ((double) origWidth) / origHeight;
-		if (unitWidth <= Content.MAX_PORTRAIT_UNIT_WIDTH) {
+		if (height > 0) {
+			// Never scale up.
+			previewHeight = Math.min(height, origHeight);
+		} else if (unitWidth <= Content.MAX_PORTRAIT_UNIT_WIDTH) {
 			previewHeight = PREVIEW_HEIGHT_PORTRAIT;
 		} else {
 			previewHeight = PREVIEW_HEIGHT;
 		}
 		
-		BufferedImage orig = ImageIO.read(file);
-		int rawWidth = orig.getWidth();
-		int rawHeight = orig.getHeight();
-		
 		int previewWidth = ((int) Math.round(previewHeight / dimension.getRatio()));
 		
-		Orientation orientation = Orientations.fromCode(getImageOrientation(metadata));
-		
-		BufferedImage copy = new BufferedImage(previewWidth, previewHeight, orig.getType());
-		Graphics2D g = (Graphics2D) copy.getGraphics();
+		// Decode only every n-th pixel, where n is the largest factor that still covers the preview size.
+		int subsampling = Math.max(1, Math.min(origWidth / Math.max(1, previewWidth), origHeight / previewHeight));
 		
-		double scaleX = Math.min(1.0, ((double)previewWidth) / origWidth);
-		double scaleY = Math.min(1.0, ((double)previewHeight) / origHeight);
-		
-		AffineTransform tx = new AffineTransform();
-		tx.translate((previewWidth - rawWidth * scaleX) / 2, (previewHeight - rawHeight * scaleY) / 2);
-		tx.scale(scaleX, scaleY);
-		applyOrientation(tx, orientation, rawWidth / 2, rawHeight / 2);
-		g.setTransform(tx);
+		Orientation orientation = Orientations.fromCode(getImageOrientation(metadata));
 		
-		g.drawImage(orig, null, 0, 0);
-		ImageIO.write(copy, imgType, previewCache);
-	}
-
-	private static void applyOrientation(AffineTransform tx, Orientation orientation, int centerX, int centerY) {
-		int rotation = 0;
-		boolean flip = false;
-		switch (orientation) {
-			case IDENTITY: 
-				break;
-			case FLIP_H:
-				flip = true;
-				break;
-			case ROT_180:
-				rotation = 180;
-				break;
-			case FLIP_V:
-				rotation = 180;
-				flip = true;
-				break;
-			case ROT_L_FLIP_V:
-				rotation = -90;
-				flip = true;
-				break;
-			case ROT_L:
-				rotation = 90;
-				break;
-			case ROT_L_FLIP_H:
-				rotation = 90;
-				flip = true;
-				break;
-			case ROT_R:
-				rotation = -90;
-				break;
-			default:
-				break;
-		}
-		if (flip) {
-			tx.scale(-1, 1);
-		}
-		tx.rotate(Math.toRadians(rotation), centerX, centerY);
+		_engine.writePreview(file, previewCache, recipe.getImageType(), recipe.getQuality(), orientation, subsampling,
+			previewWidth, previewHeight);
 	}
 
 	private static ImageDimension getImageDimension(Metadata metadata) throws MetadataException {
@@ -232,10 +825,11 @@ public class PreviewCache {
 		return 1;
 	}
 
-	private static void createVideoPreview(File file, File previewCache) throws Exception,
+	private static void createVideoPreview(File file, File previewCache, int maxHeight) throws Exception,
 			ImageProcessingException, IOException, MetadataException {
 		BufferedImage image = getPreviewFrame(file);
 		
+		Orientation orientation = Orientation.IDENTITY;
 		Metadata metadata = ImageMetadataReader.readMetadata(file);
 		Mp4Directory mp4Directory = metadata.getFirstDirectoryOfType(Mp4Directory.class);
 		if (mp4Directory != null && mp4Directory.containsTag(Mp4Directory.TAG_ROTATION)) {
@@ -243,32 +837,32 @@ public class PreviewCache {
 			while (rotation < 0) {
 				rotation += 360;
 			}
-			if (rotation != 0) {
-				// Apply transformation to the preview image.
-				
-				int rawWidth = image.getWidth();
-				int rawHeight = image.getHeight();
-				
-				int width, height;
-				if (rotation == 90 || rotation == 270) {
-					width = rawHeight;
-					height = rawWidth;
-				} else {
-					width = rawWidth;
-					height = rawHeight;
-				}
-				
-				BufferedImage copy = new BufferedImage(width, height, image.getType());
-				Graphics2D g = (Graphics2D) copy.getGraphics();
-				AffineTransform tx = new AffineTransform();
-		        tx.translate((width - rawWidth) / 2, (height - rawHeight) / 2);
-				tx.rotate(-Math.toRadians(rotation), rawWidth / 2, rawHeight / 2);
-		        g.setTransform(tx);
-		        g.drawImage(image, null, 0, 0);
-		        
-		        image = copy;
+			
+			// The frame must be rotated counter-clockwise by the given angle.
+			switch (rotation % 360) {
+				case 90:
+					orientation = Orientation.ROT_R;
+					break;
+				case 180:
+					orientation = Orientation.ROT_180;
+					break;
+				case 270:
+					orientation = Orientation.ROT_L;
+					break;
 			}
 		}
+		
+		int rawWidth = image.getWidth();
+		int rawHeight = image.getHeight();
+		int width = Orientations.width(orientation, rawWidth, rawHeight);
+		int height = Orientations.height(orientation, rawWidth, rawHeight);
+		if (maxHeight > 0 && height > maxHeight) {
+			width = Math.max(1, (int) Math.round(((double) width) * maxHeight / height));
+			height = maxHeight;
+		}
+		if (orientation != Orientation.IDENTITY || height != rawHeight) {
+			image = ImageScaler.scale(image, orientation, width, height);
+		}
 		ImageIO.write(image, JPG, previewCache);
 	}
 
@@ -282,4 +876,115 @@ public class PreviewCache {
 		}
 	}
 
+	/**
+	 * A failed generation of a preview.
+	 */
+	private static final class Failure {
+
+		final long _originalModified;
+
+		final String _message;
+
+		Failure(long originalModified, String message) {
+			_originalModified = originalModified;
+			_message = message;
+		}
+
+	}
+
+	/**
+	 * The place where a preview is kept: A file in a cache directory or the central {@link PreviewStore}, or an entry
+	 * of a {@link PreviewPack}.
+	 */
+	private static final class Location {
+
+		/**
+		 * The preview file, or a unique name of the pack entry.
+		 */
+		final File _file;
+
+		final PreviewStore _store;
+
+		final String _variant;
+
+		final PreviewPack _pack;
+
+		final String _name;
+
+		Location(File file, PreviewStore store, String variant, PreviewPack pack, String name) {
+			_file = file;
+			_store = store;
+			_variant = variant;
+			_pack = pack;
+			_name = name;
+		}
+
+		/**
+		 * The creation time of the preview, <code>0</code> if it does not exist.
+		 */
+		long lastModified() throws PreviewException {
+			if (_pack == null) {
+				return _file.lastModified();
+			}
+			try {
+				return _pack.lastModified(_name);
+			} catch (IOException ex) {
+				throw new PreviewException("Cannot read preview pack in '" + _pack.getDir() + "'.", ex);
+			}
+		}
+
+		/**
+		 * The existing preview.
+		 */
+		PreviewData data() throws PreviewException {
+			if (_pack == null) {
+				return PreviewData.fromFile(_file);
+			}
+			try {
+				PreviewData result = _pack.get(_name);
+				if (result == null) {
+					throw new PreviewException("Missing preview '" + _name + "' in '" + _pack.getDir() + "'.");
+				}
+				return result;
+			} catch (IOException ex) {
+				throw new PreviewException("Cannot read preview pack in '" + _pack.getDir() + "'.", ex);
+			}
+		}
+
+		/**
+		 * The directory to create temporary files in.
+		 */
+		File tmpDir() {
+			return _pack == null ? _file.getParentFile() : _pack.getDir();
+		}
+
+		/**
+		 * Makes the preview written to the given temporary file available at this location.
+		 */
+		void publish(File original, File tmp) throws IOException {
+			if (_pack != null) {
+				_pack.append(_name, tmp);
+			} else {
+				Files.move(tmp.toPath(), _file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+				if (_store != null) {
+					_store.stored(original, _variant, _file);
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * Algorithm writing a preview to a temporary file.
+	 */
+	private interface PreviewWriter {
+
+		/**
+		 * Writes the preview to the given file.
+		 */
+		void write(File previewCache) throws PreviewException;
+
+	}
+
 }
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2026 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package de.haumacher.imageServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * The contents of a preview, either a file of its own or a slice of a {@link PreviewPack}.
+ *
+ * @see PreviewCache#createPreview(File, int, boolean)
+ */
+public final class PreviewData {
+
+	private final String _name;
+
+	private final File _file;
+
+	private final ByteBuffer _buffer;
+
+	private final long _length;
+
+	private final long _lastModified;
+
+	private PreviewData(String name, File file, ByteBuffer buffer, long length, long lastModified) {
+		_name = name;
+		_file = file;
+		_buffer = buffer;
+		_length = length;
+		_lastModified = lastModified;
+	}
+
+	/**
+	 * A preview stored in a file of its own.
+	 */
+	public static PreviewData fromFile(File file) {
+		return new PreviewData(file.getName(), file, null, file.length(), file.lastModified());
+	}
+
+	/**
+	 * A preview stored in a memory-mapped region.
+	 *
+	 * @param name
+	 *        The name of the preview, its suffix determines the format.
+	 * @param buffer
+	 *        The contents of the preview from position zero to its limit.
+	 * @param lastModified
+	 *        The time the preview was created.
+	 */
+	public static PreviewData fromBuffer(String name, ByteBuffer buffer, long lastModified) {
+		return new PreviewData(name, null, buffer, buffer.limit(), lastModified);
+	}
+
+	/**
+	 * The name of the preview, its suffix determines the format.
+	 */
+	public String getName() {
+		return _name;
+	}
+
+	/**
+	 * The file containing the preview, or <code>null</code>, if the preview is a {@link #getBuffer() buffer}.
+	 */
+	public File getFile() {
+		return _file;
+	}
+
+	/**
+	 * A read-only view of the preview contents, or <code>null</code>, if the preview is a {@link #getFile() file}.
+	 */
+	public ByteBuffer getBuffer() {
+		return _buffer == null ? null : _buffer.asReadOnlyBuffer();
+	}
+
+	/**
+	 * The size of the preview in bytes.
+	 */
+	public long getLength() {
+		return _length;
+	}
+
+	/**
+	 * The time the preview was created.
+	 */
+	public long getLastModified() {
+		return _lastModified;
+	}
+
+	/**
+	 * Opens a stream reading the preview contents.
+	 */
+	public InputStream open() throws IOException {
+		if (_file != null) {
+			return new FileInputStream(_file);
+		}
+		ByteBuffer buffer = getBuffer();
+		byte[] contents = new byte[buffer.remaining()];
+		buffer.get(contents);
+		return new ByteArrayInputStream(contents);
+	}
+
+}
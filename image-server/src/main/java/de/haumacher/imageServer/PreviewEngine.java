@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2026 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package de.haumacher.imageServer;
+
+import java.io.File;
+import java.io.IOException;
+
+import de.haumacher.imageServer.shared.model.Orientation;
+
+/**
+ * Algorithm decoding an image, scaling it to preview size and encoding the result.
+ *
+ * @see PreviewCache#setEngine(PreviewEngine)
+ */
+public interface PreviewEngine {
+
+	/**
+	 * Whether this engine can write previews in the given format.
+	 *
+	 * @param imageType
+	 *        The file suffix of the format, e.g. <code>jpg</code>.
+	 */
+	boolean supports(String imageType);
+
+	/**
+	 * The name of the engine writing previews in the given format.
+	 *
+	 * <p>
+	 * The name is part of the {@link PreviewRecipe#getKey() key} of a preview, so that previews created by different
+	 * engines are not mixed up.
+	 * </p>
+	 *
+	 * @param imageType
+	 *        The file suffix of a {@link #supports(String) supported} format.
+	 */
+	String getName(String imageType);
+
+	/**
+	 * Writes a preview of the given image file.
+	 *
+	 * <p>
+	 * The preview is created in display orientation. An image that is smaller than the requested preview size after
+	 * decoding is not scaled up but centered in the preview.
+	 * </p>
+	 *
+	 * @param file
+	 *        The JPEG or PNG image to create a preview for.
+	 * @param preview
+	 *        The file to write the preview to.
+	 * @param imageType
+	 *        The format of the preview, one of the {@link #supports(String) supported} formats.
+	 * @param quality
+	 *        The encoder quality from <code>0</code> to <code>100</code>, ignored for lossless formats.
+	 * @param orientation
+	 *        The EXIF orientation of the raw image data.
+	 * @param subsampling
+	 *        The factor by which the raw image may be reduced while decoding, still covering the preview size.
+	 * @param previewWidth
+	 *        The width of the preview in display orientation.
+	 * @param previewHeight
+	 *        The height of the preview in display orientation.
+	 */
+	void writePreview(File file, File preview, String imageType, int quality, Orientation orientation,
+			int subsampling, int previewWidth, int previewHeight) throws IOException;
+
+}
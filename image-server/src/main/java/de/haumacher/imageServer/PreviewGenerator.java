@@ -0,0 +1,300 @@
+/*
+ * Copyright (c) 2026 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package de.haumacher.imageServer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import de.haumacher.imageServer.cache.ResourceCache;
+import de.haumacher.imageServer.shared.model.AlbumInfo;
+import de.haumacher.imageServer.shared.model.AlbumPart;
+import de.haumacher.imageServer.shared.model.ImageGroup;
+import de.haumacher.imageServer.shared.model.ImagePart;
+
+/**
+ * Background generation of previews for albums loaded into the {@link ResourceCache}.
+ *
+ * <p>
+ * When an album is loaded, all its previews are enqueued in album order. The most recently loaded album is processed
+ * first, since this is the album a client is about to display. If the {@link PreviewCache#getEngine() engine}
+ * supports {@link PreviewCache#WEBP WebP}, both the WebP and the JPEG previews are generated, since clients are served
+ * either of them depending on their <code>Accept</code> header. Previews requested explicitly by a client are not
+ * queued but created directly in the request, see {@link PreviewCache#createPreview(File, int, boolean)}. A background job
+ * for a preview that has been created in the meantime completes without any work.
+ * </p>
+ */
+public class PreviewGenerator implements ResourceCache.AlbumListener {
+
+	private static final Logger LOG = Logger.getLogger(PreviewGenerator.class.getName());
+
+	/**
+	 * Number of completed jobs after which progress is logged.
+	 */
+	private static final int PROGRESS_INTERVAL = 100;
+
+	private final ThreadPoolExecutor _executor;
+
+	private final int _capacity;
+
+	private final int[] _heights;
+
+	/**
+	 * Keys of all jobs currently queued or running.
+	 */
+	private final Set<String> _pending = ConcurrentHashMap.newKeySet();
+
+	private final AtomicLong _nextBatch = new AtomicLong();
+
+	private final AtomicLong _completed = new AtomicLong();
+
+	private final AtomicLong _failed = new AtomicLong();
+
+	private final AtomicLong _dropped = new AtomicLong();
+
+	private boolean _idle = true;
+
+	private long _periodStart;
+
+	private long _periodCompleted;
+
+	/**
+	 * Creates a {@link PreviewGenerator}.
+	 *
+	 * @param parallelism
+	 *        The number of previews generated concurrently in the background.
+	 * @param capacity
+	 *        The maximum number of queued previews. Previews of albums loaded while the queue is full are created on
+	 *        demand.
+	 * @param heights
+	 *        The preview heights to generate, <code>0</code> for the default preview, see
+	 *        {@link PreviewCache#createPreview(File, int)}.
+	 */
+	public PreviewGenerator(int parallelism, int capacity, int[] heights) {
+		_capacity = capacity;
+		_heights = heights.clone();
+		_executor = new ThreadPoolExecutor(parallelism, parallelism, 0, TimeUnit.SECONDS,
+			new PriorityBlockingQueue<>(), threadFactory());
+
+		// Make sure that all jobs pass the priority queue.
+		_executor.prestartAllCoreThreads();
+	}
+
+	private static ThreadFactory threadFactory() {
+		AtomicInteger nextId = new AtomicInteger(1);
+		return task -> {
+			Thread thread = new Thread(task, "preview-generator-" + nextId.getAndIncrement());
+			thread.setDaemon(true);
+
+			// Requests creating previews on demand should win over background work.
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		};
+	}
+
+	@Override
+	public void onAlbumLoaded(PathInfo path, AlbumInfo album) {
+		File dir = path.toFile();
+		long batch = _nextBatch.incrementAndGet();
+
+		int position = 0;
+		int enqueued = 0;
+		for (ImagePart image : images(album)) {
+			File file = new File(dir, image.getName());
+
+			// Only JPEG images have a separate WebP preview.
+			boolean webp = PreviewCache.WEBP.equals(PreviewCache.recipe(file, 0, true).getImageType());
+			for (int height : _heights) {
+				if (webp && enqueue(new Job(file, height, true, batch, position))) {
+					enqueued++;
+				}
+				if (enqueue(new Job(file, height, false, batch, position))) {
+					enqueued++;
+				}
+			}
+			position++;
+		}
+
+		if (enqueued > 0) {
+			LOG.log(Level.FINE, "Enqueued " + enqueued + " previews of '" + path.toPath() + "', " + getQueueSize()
+				+ " queued.");
+		}
+	}
+
+	private static List<ImagePart> images(AlbumInfo album) {
+		List<ImagePart> result = new ArrayList<>();
+		for (AlbumPart part : album.getParts()) {
+			if (part instanceof ImagePart) {
+				result.add((ImagePart) part);
+			} else if (part instanceof ImageGroup) {
+				result.addAll(((ImageGroup) part).getImages());
+			}
+		}
+		return result;
+	}
+
+	private boolean enqueue(Job job) {
+		if (_executor.getQueue().size() >= _capacity) {
+			_dropped.incrementAndGet();
+			return false;
+		}
+		if (!_pending.add(job.getKey())) {
+			// Already queued.
+			return false;
+		}
+		startPeriod();
+		_executor.execute(job);
+		return true;
+	}
+
+	private synchronized void startPeriod() {
+		if (_idle) {
+			_idle = false;
+			_periodStart = System.nanoTime();
+			_periodCompleted = 0;
+		}
+	}
+
+	void complete(Job job, boolean success) {
+		(success ? _completed : _failed).incrementAndGet();
+		_pending.remove(job.getKey());
+
+		synchronized (this) {
+			_periodCompleted++;
+			if (_pending.isEmpty()) {
+				// Do not report short periods, where most previews already existed.
+				Level level = System.nanoTime() - _periodStart >= TimeUnit.SECONDS.toNanos(1) ? Level.INFO : Level.FINE;
+				LOG.log(level, "Preview generation idle: " + _periodCompleted + " previews processed at "
+					+ String.format("%.1f", throughput()) + " previews/s, " + toString() + ".");
+				_idle = true;
+			} else if (_periodCompleted % PROGRESS_INTERVAL == 0) {
+				LOG.log(Level.INFO, "Preview generation: " + _periodCompleted + " previews processed at "
+					+ String.format("%.1f", throughput()) + " previews/s, " + getQueueSize() + " queued.");
+			}
+		}
+	}
+
+	private double throughput() {
+		double seconds = (System.nanoTime() - _periodStart) / 1e9;
+		return seconds > 0 ? _periodCompleted / seconds : 0.0;
+	}
+
+	/**
+	 * The number of previews waiting for generation.
+	 */
+	public int getQueueSize() {
+		return _executor.getQueue().size();
+	}
+
+	/**
+	 * The number of previews currently being generated in the background.
+	 */
+	public int getActiveCount() {
+		return _executor.getActiveCount();
+	}
+
+	/**
+	 * The total number of processed background jobs.
+	 */
+	public long getCompleted() {
+		return _completed.get();
+	}
+
+	/**
+	 * The total number of background jobs that failed.
+	 */
+	public long getFailed() {
+		return _failed.get();
+	}
+
+	/**
+	 * The total number of previews not enqueued, because the queue was full.
+	 */
+	public long getDropped() {
+		return _dropped.get();
+	}
+
+	/**
+	 * Stops background generation.
+	 */
+	public void shutdown() {
+		_executor.shutdownNow();
+	}
+
+	@Override
+	public String toString() {
+		return "completed: " + getCompleted() + ", failed: " + getFailed() + ", dropped: " + getDropped()
+			+ ", queued: " + getQueueSize();
+	}
+
+	private final class Job implements Runnable, Comparable<Job> {
+
+		private final File _file;
+
+		private final int _height;
+
+		private final boolean _webp;
+
+		private final long _batch;
+
+		private final int _position;
+
+		Job(File file, int height, boolean webp, long batch, int position) {
+			_file = file;
+			_height = height;
+			_webp = webp;
+			_batch = batch;
+			_position = position;
+		}
+
+		String getKey() {
+			return _height + (_webp ? ":webp:" : ":") + _file.getPath();
+		}
+
+		@Override
+		public void run() {
+			boolean success = false;
+			try {
+				PreviewCache.createPreview(_file, _height, _webp);
+				success = true;
+			} catch (PreviewException | RuntimeException ex) {
+				LOG.log(Level.FINE, "Background preview generation failed for '" + _file + "'.", ex);
+			} finally {
+				complete(this, success);
+			}
+		}
+
+		@Override
+		public int compareTo(Job other) {
+			// Newest album first.
+			int result = Long.compare(other._batch, _batch);
+			if (result != 0) {
+				return result;
+			}
+			// In album order.
+			result = Integer.compare(_position, other._position);
+			if (result != 0) {
+				return result;
+			}
+			result = Integer.compare(_height, other._height);
+			if (result != 0) {
+				return result;
+			}
+			// WebP first, since most clients accept it.
+			return Boolean.compare(other._webp, _webp);
+		}
+
+	}
+
+}
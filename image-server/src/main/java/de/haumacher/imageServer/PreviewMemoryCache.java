@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2026 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package de.haumacher.imageServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+
+/**
+ * In-memory cache of the contents of frequently requested previews.
+ *
+ * <p>
+ * The cache is limited by the total size of the cached previews. An entry is valid as long as the original it was
+ * created from has not been modified. Previews can be kept on the Java heap or in direct buffers outside of the heap.
+ * </p>
+ *
+ * <p>
+ * Previews from a {@link PreviewPack} are not copied, since they are already served from a memory mapping.
+ * </p>
+ *
+ * @see PreviewCache#setMemoryCache(PreviewMemoryCache)
+ */
+public class PreviewMemoryCache {
+
+	private static final Logger LOG = Logger.getLogger(PreviewMemoryCache.class.getName());
+
+	/**
+	 * Estimated memory required for an entry in addition to the preview contents.
+	 */
+	private static final int ENTRY_OVERHEAD = 256;
+
+	/**
+	 * Minimum time between two statistics reports in the log.
+	 */
+	private static final long REPORT_INTERVAL = TimeUnit.MINUTES.toMillis(10);
+
+	private final Cache<File, Entry> _cache;
+
+	/**
+	 * The keys of the cached previews by their original.
+	 */
+	private final ConcurrentMap<File, Set<File>> _keysByOriginal = new ConcurrentHashMap<>();
+
+	private final long _maxEntrySize;
+
+	private final boolean _direct;
+
+	private final AtomicLong _nextReport = new AtomicLong(System.currentTimeMillis() + REPORT_INTERVAL);
+
+	/**
+	 * Creates a {@link PreviewMemoryCache}.
+	 *
+	 * @param budget
+	 *        The maximum number of bytes to keep in memory.
+	 * @param direct
+	 *        Whether to keep previews in direct buffers outside the Java heap.
+	 */
+	public PreviewMemoryCache(long budget, boolean direct) {
+		_direct = direct;
+
+		// A single preview must not displace a significant part of the cache.
+		_maxEntrySize = budget / 64;
+		_cache = CacheBuilder.newBuilder()
+			.maximumWeight(budget)
+			.weigher((File key, Entry entry) -> entry.weight())
+			.removalListener(this::removed)
+			.recordStats()
+			.build();
+	}
+
+	/**
+	 * Looks up a cached preview.
+	 *
+	 * @param key
+	 *        The unique location of the preview.
+	 * @param originalModified
+	 *        The current modification time of the original.
+	 * @return The cached preview, or <code>null</code>, if the preview is not cached or the original has been modified
+	 *         since.
+	 */
+	public PreviewData get(File key, long originalModified) {
+		reportStats();
+
+		Entry entry = _cache.getIfPresent(key);
+		if (entry == null) {
+			return null;
+		}
+		if (entry._originalModified != originalModified) {
+			_cache.invalidate(key);
+			return null;
+		}
+		return entry._data;
+	}
+
+	/**
+	 * Adds the given preview to the cache.
+	 *
+	 * @param key
+	 *        The unique location of the preview.
+	 * @param original
+	 *        The original the preview was created from.
+	 * @param originalModified
+	 *        The modification time of the original, before the preview was looked up.
+	 * @param data
+	 *        The preview.
+	 * @return The cached copy of the preview, or the given preview, if it is too large to be cached.
+	 */
+	public PreviewData put(File key, File original, long originalModified, PreviewData data) throws IOException {
+		File file = data.getFile();
+		if (file == null || data.getLength() > _maxEntrySize) {
+			return data;
+		}
+
+		byte[] contents = Files.readAllBytes(file.toPath());
+
+		ByteBuffer buffer;
+		if (_direct) {
+			buffer = ByteBuffer.allocateDirect(contents.length);
+			buffer.put(contents);
+			buffer.flip();
+		} else {
+			buffer = ByteBuffer.wrap(contents);
+		}
+
+		PreviewData result = PreviewData.fromBuffer(data.getName(), buffer, data.getLastModified());
+		_cache.put(key, new Entry(original, originalModified, result));
+		_keysByOriginal.computeIfAbsent(original, x -> ConcurrentHashMap.newKeySet()).add(key);
+		return result;
+	}
+
+	/**
+	 * Drops all previews of the given original.
+	 */
+	public void invalidate(File original) {
+		Set<File> keys = _keysByOriginal.remove(original);
+		if (keys != null) {
+			_cache.invalidateAll(keys);
+		}
+	}
+
+	private void removed(RemovalNotification<File, Entry> notification) {
+		if (notification.getCause() == RemovalCause.REPLACED) {
+			return;
+		}
+		File key = notification.getKey();
+		_keysByOriginal.computeIfPresent(notification.getValue()._original, (original, keys) -> {
+			keys.remove(key);
+			return keys.isEmpty() ? null : keys;
+		});
+	}
+
+	/**
+	 * The hit and miss statistics of this cache.
+	 */
+	public CacheStats getStats() {
+		return _cache.stats();
+	}
+
+	private void reportStats() {
+		long now = System.currentTimeMillis();
+		long next = _nextReport.get();
+		if (now >= next && _nextReport.compareAndSet(next, now + REPORT_INTERVAL)) {
+			CacheStats stats = _cache.stats();
+			LOG.info("Preview memory cache: " + _cache.size() + " entries, hit rate "
+				+ Math.round(stats.hitRate() * 100) + "% (" + stats.hitCount() + " hits, " + stats.missCount()
+				+ " misses, " + stats.evictionCount() + " evictions).");
+		}
+	}
+
+	private static final class Entry {
+
+		final File _original;
+
+		final long _originalModified;
+
+		final PreviewData _data;
+
+		Entry(File original, long originalModified, PreviewData data) {
+			_original = original;
+			_originalModified = originalModified;
+			_data = data;
+		}
+
+		int weight() {
+			return (int) Math.min(Integer.MAX_VALUE, _data.getLength() + ENTRY_OVERHEAD);
+		}
+
+	}
+
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2026 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package de.haumacher.imageServer;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import de.haumacher.util.servlet.Util;
+
+/**
+ * Background replacement of previews created with an outdated {@link PreviewRecipe recipe} version.
+ *
+ * <p>
+ * While a preview has not been replaced, the preview of the older version is delivered. Previews requested by clients
+ * are replaced first, in the order of their requests. Optionally, the whole library is walked for outdated previews
+ * when there are no requests, most recently modified albums first. The walk only replaces previews that exist in an
+ * older version, so that it does not create previews that have never been requested.
+ * </p>
+ *
+ * <p>
+ * All previews are replaced by a single low-priority thread, so that a recipe change never results in a load spike.
+ * </p>
+ *
+ * @see PreviewCache#setMigration(PreviewMigration)
+ */
+public class PreviewMigration {
+
+	private static final Logger LOG = Logger.getLogger(PreviewMigration.class.getName());
+
+	/**
+	 * Number of replaced previews after which progress is logged.
+	 */
+	private static final int PROGRESS_INTERVAL = 100;
+
+	private final BlockingQueue<Task> _requested = new LinkedBlockingQueue<>();
+
+	/**
+	 * Keys of all requested tasks not yet completed.
+	 */
+	private final Set<String> _pending = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Directories still to be visited by the library walk.
+	 */
+	private final Deque<File> _dirs = new ArrayDeque<>();
+
+	/**
+	 * Tasks found in the last visited directory.
+	 */
+	private final Deque<Task> _found = new ArrayDeque<>();
+
+	private boolean _walking;
+
+	private final AtomicLong _migrated = new AtomicLong();
+
+	private final AtomicLong _failed = new AtomicLong();
+
+	private final Thread _thread;
+
+	/**
+	 * Creates a {@link PreviewMigration}.
+	 *
+	 * @param library
+	 *        The root directory of all albums to walk for outdated previews, <code>null</code> to replace only
+	 *        requested previews.
+	 */
+	public PreviewMigration(File library) {
+		if (library != null) {
+			_dirs.add(library);
+			_walking = true;
+		}
+
+		_thread = new Thread(this::run, "preview-migration");
+		_thread.setDaemon(true);
+
+		// Requests creating previews on demand should win over background work.
+		_thread.setPriority(Thread.MIN_PRIORITY);
+	}
+
+	/**
+	 * Starts replacing outdated previews.
+	 */
+	public void start() {
+		_thread.start();
+	}
+
+	/**
+	 * Requests to replace the preview of the given file with one created with the given current recipe.
+	 */
+	public void schedule(File file, PreviewRecipe recipe) {
+		Task task = new Task(file, recipe);
+		if (_pending.add(task.getKey())) {
+			_requested.add(task);
+		}
+	}
+
+	/**
+	 * The number of replaced previews.
+	 */
+	public long getMigratedCount() {
+		return _migrated.get();
+	}
+
+	private void run() {
+		try {
+			while (true) {
+				Task task = _requested.poll();
+				if (task != null) {
+					migrate(task);
+					_pending.remove(task.getKey());
+					continue;
+				}
+
+				task = nextOutdated();
+				if (task != null) {
+					migrate(task);
+				} else {
+					task = _requested.take();
+					migrate(task);
+					_pending.remove(task.getKey());
+				}
+			}
+		} catch (InterruptedException ex) {
+			// Shutting down.
+		}
+	}
+
+	private void migrate(Task task) {
+		try {
+			PreviewCache.migrate(task._file, task._recipe);
+			long migrated = _migrated.incrementAndGet();
+			if (migrated % PROGRESS_INTERVAL == 0) {
+				LOG.info("Preview migration: " + migrated + " previews replaced, " + _requested.size()
+					+ " requests queued.");
+			}
+		} catch (PreviewException | RuntimeException ex) {
+			_failed.incrementAndGet();
+			LOG.log(Level.WARNING, "Cannot replace preview " + task._recipe + " of '" + task._file + "'.", ex);
+		}
+	}
+
+	/**
+	 * The next preview found by the library walk that exists in an outdated version only, <code>null</code> if the
+	 * walk is complete.
+	 */
+	private Task nextOutdated() {
+		while (_found.isEmpty()) {
+			File dir = _dirs.pollFirst();
+			if (dir == null) {
+				if (_walking) {
+					_walking = false;
+					LOG.info("Preview migration walk completed: " + _migrated.get() + " previews replaced, "
+						+ _failed.get() + " failed.");
+				}
+				return null;
+			}
+			visit(dir);
+		}
+		return _found.pollFirst();
+	}
+
+	private void visit(File dir) {
+		File[] contents = dir.listFiles();
+		if (contents == null) {
+			return;
+		}
+
+		List<File> subDirs = new ArrayList<>();
+		for (File file : contents) {
+			String name = file.getName();
+			if (name.startsWith(".")) {
+				// Cache directories.
+				continue;
+			}
+			if (file.isDirectory()) {
+				subDirs.add(file);
+			} else if (PreviewCache.SUPPORTED_EXTENSIONS.contains(Util.suffix(name))) {
+				for (PreviewRecipe recipe : recipes(file)) {
+					try {
+						if (PreviewCache.isMigrationPending(file, recipe)) {
+							_found.add(new Task(file, recipe));
+						}
+					} catch (PreviewException ex) {
+						LOG.log(Level.WARNING, "Cannot check preview " + recipe + " of '" + file + "'.", ex);
+					}
+				}
+			}
+		}
+
+		// Most recently modified albums first.
+		subDirs.sort(Comparator.comparingLong(File::lastModified).reversed());
+		for (int n = subDirs.size() - 1; n >= 0; n--) {
+			_dirs.addFirst(subDirs.get(n));
+		}
+	}
+
+	private static List<PreviewRecipe> recipes(File file) {
+		List<PreviewRecipe> result = new ArrayList<>();
+		result.add(PreviewRecipe.micro());
+		int[] heights = PreviewCache.getPreviewHeights();
+
+		// Including the default preview with height 0.
+		for (int height : Arrays.copyOf(heights, heights.length + 1)) {
+			PreviewRecipe recipe = PreviewCache.recipe(file, height, false);
+			result.add(recipe);
+			PreviewRecipe webp = PreviewCache.recipe(file, height, true);
+			if (!webp.getImageType().equals(recipe.getImageType())) {
+				result.add(webp);
+			}
+		}
+		return result;
+	}
+
+	private static final class Task {
+
+		final File _file;
+
+		final PreviewRecipe _recipe;
+
+		Task(File file, PreviewRecipe recipe) {
+			_file = file;
+			_recipe = recipe;
+		}
+
+		String getKey() {
+			return _file.getPath() + '\n' + _recipe.getKey() + '.' + _recipe.getImageType();
+		}
+
+	}
+
+}
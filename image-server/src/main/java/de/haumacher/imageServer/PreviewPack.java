@@ -0,0 +1,479 @@
+/*
+ * Copyright (c) 2026 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package de.haumacher.imageServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.Striped;
+
+/**
+ * Storage of all previews of an album in a single pack file.
+ *
+ * <p>
+ * Previews are appended to the pack file, each preceded by a header with its name, creation time and size. When the
+ * pack is opened, the headers are scanned to build an index of the offsets of all previews. A preview that is created
+ * again supersedes the earlier one, which remains in the file as garbage until the pack is compacted.
+ * </p>
+ *
+ * <p>
+ * The pack file is memory-mapped, previews are delivered as slices of the mapping. Compaction writes a new pack file
+ * and replaces the old one atomically. Slices of the old pack remain valid as long as they are referenced.
+ * </p>
+ *
+ * <p>
+ * Since a mapping is limited to 2 GB, so is a pack file.
+ * </p>
+ *
+ * <p>
+ * Only the packs of recently accessed albums are kept open. The index and mapping of a pack evicted from
+ * {@link #forDirectory(File, Predicate)} are released, as soon as the last preview delivered from it is no longer
+ * referenced.
+ * </p>
+ */
+public class PreviewPack {
+
+	private static final Logger LOG = Logger.getLogger(PreviewPack.class.getName());
+
+	/**
+	 * Name of the pack file in the preview cache directory of an album.
+	 */
+	public static final String PACK_FILE = "previews.pack";
+
+	private static final int MAGIC = 0x5641504B; // "VAPK"
+
+	private static final int VERSION = 1;
+
+	private static final int FILE_HEADER_SIZE = 8;
+
+	/**
+	 * Minimum number of superseded bytes, before a pack is compacted.
+	 */
+	private static final long COMPACT_THRESHOLD = 1024 * 1024;
+
+	/**
+	 * Maximum number of packs kept open.
+	 */
+	private static final int MAX_OPEN_PACKS = 256;
+
+	/**
+	 * Minutes after which an unused pack is closed.
+	 */
+	private static final int IDLE_MINUTES = 10;
+
+	private static final LoadingCache<File, PreviewPack> PACKS = CacheBuilder.newBuilder()
+		.maximumSize(MAX_OPEN_PACKS)
+		.expireAfterAccess(IDLE_MINUTES, TimeUnit.MINUTES)
+		.build(CacheLoader.from(PreviewPack::new));
+
+	/**
+	 * Locks serializing modifications of a pack file.
+	 *
+	 * <p>
+	 * A pack that has been evicted from {@link #PACKS} while still in use and its replacement may access the same
+	 * file concurrently.
+	 * </p>
+	 */
+	private static final Striped<Lock> FILE_LOCKS = Striped.lock(64);
+
+	private final File _dir;
+
+	private final File _file;
+
+	private volatile Predicate<String> _live = name -> true;
+
+	private volatile ConcurrentMap<String, Entry> _entries = new ConcurrentHashMap<>();
+
+	private volatile boolean _loaded;
+
+	/**
+	 * The current pack file, <code>null</code> if it does not yet exist.
+	 */
+	private Generation _generation;
+
+	private long _size;
+
+	private long _garbage;
+
+	/**
+	 * Creates a {@link PreviewPack}.
+	 * 
+	 * @see #forDirectory(File, Predicate)
+	 */
+	PreviewPack(File dir) {
+		_dir = dir;
+		_file = new File(dir, PACK_FILE);
+	}
+
+	/**
+	 * The pack of the given preview cache directory.
+	 * 
+	 * @param live
+	 *        Whether the preview with a given name is still required, previews for which this is not the case are
+	 *        dropped when the pack is compacted.
+	 */
+	public static PreviewPack forDirectory(File dir, Predicate<String> live) {
+		PreviewPack result = PACKS.getUnchecked(dir.getAbsoluteFile());
+		result._live = live;
+		return result;
+	}
+
+	/**
+	 * The directory containing the pack file.
+	 */
+	public File getDir() {
+		return _dir;
+	}
+
+	/**
+	 * The creation time of the preview with the given name, <code>0</code> if there is no such preview.
+	 */
+	public long lastModified(String name) throws IOException {
+		Entry entry = lookup(name);
+		return entry == null ? 0L : entry._lastModified;
+	}
+
+	/**
+	 * The preview with the given name, <code>null</code> if there is no such preview.
+	 */
+	public PreviewData get(String name) throws IOException {
+		Entry entry = lookup(name);
+		if (entry == null) {
+			return null;
+		}
+		return PreviewData.fromBuffer(name, entry._generation.slice(entry._offset, entry._length), entry._lastModified);
+	}
+
+	private Entry lookup(String name) throws IOException {
+		if (!_loaded) {
+			load();
+		}
+		return _entries.get(name);
+	}
+
+	/**
+	 * Appends the contents of the given file as preview with the given name.
+	 */
+	public synchronized void append(String name, File data) throws IOException {
+		Lock lock = FILE_LOCKS.get(_file);
+		lock.lock();
+		try {
+			load();
+			if (_file.length() != _size) {
+				// Modified by another instance for the same file.
+				scan();
+			}
+			doAppend(name, data);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void doAppend(String name, File data) throws IOException {
+		byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+		byte[] contents = Files.readAllBytes(data.toPath());
+		int headerSize = 2 + nameBytes.length + 8 + 4;
+		long size = _size == 0 ? FILE_HEADER_SIZE : _size;
+		if (size + headerSize + contents.length > Integer.MAX_VALUE) {
+			throw new IOException("Preview pack full: " + _file);
+		}
+
+		long lastModified = System.currentTimeMillis();
+		ByteBuffer record = ByteBuffer.allocate((_size == 0 ? FILE_HEADER_SIZE : 0) + headerSize + contents.length);
+		if (_size == 0) {
+			record.putInt(MAGIC);
+			record.putInt(VERSION);
+		}
+		record.putShort((short) nameBytes.length);
+		record.put(nameBytes);
+		record.putLong(lastModified);
+		record.putInt(contents.length);
+		record.put(contents);
+		record.flip();
+
+		try (FileChannel out = FileChannel.open(_file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			long position = _size;
+			while (record.hasRemaining()) {
+				position += out.write(record, position);
+			}
+		}
+		if (_generation == null) {
+			_generation = Generation.open(_file);
+		}
+
+		Entry entry = new Entry(_generation, size + headerSize, contents.length, lastModified);
+		_size = size + headerSize + contents.length;
+		Entry before = _entries.put(name, entry);
+		if (before != null) {
+			_garbage += before.recordSize(name);
+		}
+
+		if (_garbage > COMPACT_THRESHOLD && _garbage > _size / 2) {
+			compact();
+		}
+	}
+
+	private synchronized void load() throws IOException {
+		if (_loaded) {
+			return;
+		}
+		Lock lock = FILE_LOCKS.get(_file);
+		lock.lock();
+		try {
+			scan();
+		} finally {
+			lock.unlock();
+		}
+
+		// Lookups must not see a partially built index. If the scan fails, it is retried with the next access.
+		_loaded = true;
+	}
+
+	private void scan() throws IOException {
+		ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+		_generation = null;
+		_size = 0;
+		_garbage = 0;
+		try {
+			_generation = Generation.open(_file);
+		} catch (NoSuchFileException ex) {
+			_entries = entries;
+			return;
+		}
+
+		long size = _generation.size();
+		ByteBuffer buffer = _generation.slice(0, (int) Math.min(size, Integer.MAX_VALUE));
+		if (size < FILE_HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+			LOG.warning("Discarding invalid preview pack: " + _file);
+			_generation.close();
+			_generation = null;
+			_entries = entries;
+			Files.delete(_file.toPath());
+			return;
+		}
+
+		int position = FILE_HEADER_SIZE;
+		try {
+			while (position < buffer.limit()) {
+				buffer.position(position);
+				byte[] nameBytes = new byte[buffer.getShort() & 0xFFFF];
+				buffer.get(nameBytes);
+				long lastModified = buffer.getLong();
+				int length = buffer.getInt();
+				int offset = buffer.position();
+				if (length < 0 || offset + length > buffer.limit()) {
+					break;
+				}
+
+				String name = new String(nameBytes, StandardCharsets.UTF_8);
+				Entry before = entries.put(name, new Entry(_generation, offset, length, lastModified));
+				if (before != null) {
+					_garbage += before.recordSize(name);
+				}
+				position = offset + length;
+			}
+		} catch (RuntimeException ex) {
+			// Truncated header.
+		}
+
+		if (position < size) {
+			// The last record was not completely written.
+			LOG.warning("Truncating incomplete preview pack '" + _file + "' to " + position + " bytes.");
+			try (FileChannel out = FileChannel.open(_file.toPath(), StandardOpenOption.WRITE)) {
+				out.truncate(position);
+			}
+		}
+		_entries = entries;
+		_size = position;
+	}
+
+	/**
+	 * Rewrites the pack without superseded previews and without previews that are no longer
+	 * {@link #forDirectory(File, Predicate) live}.
+	 */
+	private void compact() throws IOException {
+		List<Map.Entry<String, Entry>> live = new ArrayList<>(_entries.size());
+		List<String> dead = new ArrayList<>();
+		Predicate<String> isLive = _live;
+		for (Map.Entry<String, Entry> entry : _entries.entrySet()) {
+			if (isLive.test(entry.getKey())) {
+				live.add(entry);
+			} else {
+				dead.add(entry.getKey());
+			}
+		}
+		live.sort(Comparator.comparingLong(e -> e.getValue()._offset));
+
+		File tmp = new File(_dir, PACK_FILE + ".tmp");
+		long position = 0;
+		List<Entry> moved = new ArrayList<>(live.size());
+
+		// The channel stays open for the new generation, it follows the file when moved to the pack location.
+		FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+			StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		Generation generation = new Generation(_file, out);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+			header.putInt(MAGIC);
+			header.putInt(VERSION);
+			header.flip();
+			position += write(out, header);
+
+			for (Map.Entry<String, Entry> e : live) {
+				String name = e.getKey();
+				Entry entry = e.getValue();
+				int headerSize = entry.recordSize(name) - entry._length;
+
+				// Header and contents are copied as a whole.
+				ByteBuffer record = entry._generation.slice(entry._offset - headerSize, headerSize + entry._length);
+				position += write(out, record);
+				moved.add(new Entry(generation, position - entry._length, entry._length, entry._lastModified));
+			}
+		} catch (IOException | RuntimeException ex) {
+			out.close();
+			throw ex;
+		}
+		Files.move(tmp.toPath(), _file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+		LOG.log(Level.FINE, "Compacted preview pack '" + _file + "' from " + _size + " to " + position + " bytes, "
+			+ dead.size() + " previews dropped.");
+		_generation = generation;
+		_size = position;
+		_garbage = 0;
+		for (int n = 0, cnt = live.size(); n < cnt; n++) {
+			_entries.put(live.get(n).getKey(), moved.get(n));
+		}
+		_entries.keySet().removeAll(dead);
+	}
+
+	private static int write(FileChannel out, ByteBuffer buffer) throws IOException {
+		int result = buffer.remaining();
+		while (buffer.hasRemaining()) {
+			out.write(buffer);
+		}
+		return result;
+	}
+
+	/**
+	 * Location of a preview in the pack.
+	 */
+	private static final class Entry {
+
+		final Generation _generation;
+
+		final long _offset;
+
+		final int _length;
+
+		final long _lastModified;
+
+		Entry(Generation generation, long offset, int length, long lastModified) {
+			_generation = generation;
+			_offset = offset;
+			_length = length;
+			_lastModified = lastModified;
+		}
+
+		/**
+		 * The size of the record including its header.
+		 */
+		int recordSize(String name) {
+			return 2 + name.getBytes(StandardCharsets.UTF_8).length + 8 + 4 + _length;
+		}
+
+	}
+
+	/**
+	 * A version of the pack file, before or after a compaction.
+	 *
+	 * <p>
+	 * The file is mapped on demand, and mapped again when entries are requested that have been appended after the
+	 * last mapping. A generation replaced by compaction has been mapped completely before.
+	 * </p>
+	 */
+	private static final class Generation {
+
+		private final File _file;
+
+		/**
+		 * The channel the pack file has been opened with.
+		 *
+		 * <p>
+		 * The file is always mapped through this channel, never again through its path. After a compaction, the path
+		 * designates another file.
+		 * </p>
+		 */
+		private final FileChannel _channel;
+
+		private volatile MappedByteBuffer _mapping;
+
+		Generation(File file, FileChannel channel) {
+			_file = file;
+			_channel = channel;
+		}
+
+		/**
+		 * Opens the current pack file at the given location.
+		 */
+		static Generation open(File file) throws IOException {
+			return new Generation(file, FileChannel.open(file.toPath(), StandardOpenOption.READ));
+		}
+
+		void close() throws IOException {
+			_channel.close();
+		}
+
+		long size() throws IOException {
+			return _channel.size();
+		}
+
+		ByteBuffer slice(long offset, int length) throws IOException {
+			MappedByteBuffer mapping = _mapping;
+			if (mapping == null || mapping.capacity() < offset + length) {
+				mapping = map(offset + length);
+			}
+			ByteBuffer result = mapping.duplicate();
+			result.position((int) offset);
+			result.limit((int) offset + length);
+			return result.slice();
+		}
+
+		private synchronized MappedByteBuffer map(long end) throws IOException {
+			MappedByteBuffer mapping = _mapping;
+			if (mapping == null || mapping.capacity() < end) {
+				mapping = _channel.map(MapMode.READ_ONLY, 0, _channel.size());
+				if (mapping.capacity() < end) {
+					throw new IOException("Preview pack '" + _file + "' is shorter than expected.");
+				}
+				_mapping = mapping;
+			}
+			return mapping;
+		}
+
+	}
+
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2026 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package de.haumacher.imageServer;
+
+import java.util.Objects;
+
+/**
+ * Description of how a preview variant is created: its size, format, quality and the {@link PreviewEngine} creating
+ * it, together with a version.
+ *
+ * <p>
+ * The version is part of the key a preview is stored under. It must be incremented whenever a change to the preview
+ * creation (e.g. the scaling algorithm or encoder settings) results in visibly different previews. Previews of older
+ * versions are still delivered until they have been replaced in the background, see {@link PreviewMigration}.
+ * </p>
+ *
+ * <p>
+ * Since version <code>2</code>, the name of the engine is part of the key, so that switching the engine creates new
+ * previews instead of mixing previews of both engines.
+ * </p>
+ */
+public final class PreviewRecipe {
+
+	/**
+	 * Variant name of the preview embedded in EXIF data.
+	 */
+	public static final String MICRO = "micro";
+
+	/**
+	 * Current version of JPEG previews.
+	 */
+	private static final int JPG_VERSION = 2;
+
+	/**
+	 * Current version of PNG previews.
+	 */
+	private static final int PNG_VERSION = 2;
+
+	/**
+	 * Current version of WebP previews.
+	 */
+	private static final int WEBP_VERSION = 2;
+
+	/**
+	 * Current version of micro previews.
+	 */
+	private static final int MICRO_VERSION = 1;
+
+	/**
+	 * The JPEG quality of previews, the same as the {@link javax.imageio.ImageIO} default.
+	 */
+	private static final int JPG_QUALITY = 75;
+
+	/**
+	 * The WebP quality of previews, the libwebp default.
+	 */
+	private static final int WEBP_QUALITY = 75;
+
+	private static final String VERSION_SEPARATOR = "-v";
+
+	private static final char ENGINE_SEPARATOR = '-';
+
+	private final String _variant;
+
+	private final int _height;
+
+	private final String _imageType;
+
+	private final String _engine;
+
+	private final int _version;
+
+	private PreviewRecipe(String variant, int height, String imageType, String engine, int version) {
+		_variant = variant;
+		_height = height;
+		_imageType = imageType;
+		_engine = engine;
+		_version = version;
+	}
+
+	/**
+	 * The current recipe for a scaled preview.
+	 *
+	 * @param height
+	 *        The preview height, <code>0</code> for the default preview.
+	 * @param imageType
+	 *        The preview format.
+	 * @param engine
+	 *        The {@link PreviewEngine#getName(String) name} of the engine creating the preview.
+	 */
+	public static PreviewRecipe preview(int height, String imageType, String engine) {
+		String variant = height > 0 ? "h" + height : "";
+		return new PreviewRecipe(variant, height, imageType, engine, currentVersion(variant, imageType));
+	}
+
+	/**
+	 * The current recipe for micro previews.
+	 *
+	 * <p>
+	 * Micro previews are extracted from EXIF data and therefore not created by an engine.
+	 * </p>
+	 */
+	public static PreviewRecipe micro() {
+		return new PreviewRecipe(MICRO, 0, "jpg", null, MICRO_VERSION);
+	}
+
+	/**
+	 * This recipe in an older version.
+	 */
+	public PreviewRecipe withVersion(int version) {
+		return new PreviewRecipe(_variant, _height, _imageType, _engine, version);
+	}
+
+	/**
+	 * The name of the variant, e.g. <code>h480</code>, empty for the default preview.
+	 */
+	public String getVariant() {
+		return _variant;
+	}
+
+	/**
+	 * The preview height, <code>0</code> for the default preview.
+	 */
+	public int getHeight() {
+		return _height;
+	}
+
+	/**
+	 * The file suffix of the preview format.
+	 */
+	public String getImageType() {
+		return _imageType;
+	}
+
+	/**
+	 * The encoder quality from <code>0</code> to <code>100</code>, if the format is lossy.
+	 */
+	public int getQuality() {
+		return "webp".equals(_imageType) ? WEBP_QUALITY : JPG_QUALITY;
+	}
+
+	/**
+	 * The {@link PreviewEngine#getName(String) name} of the engine creating the preview, <code>null</code> for micro
+	 * previews.
+	 */
+	public String getEngine() {
+		return _engine;
+	}
+
+	/**
+	 * The version of this recipe.
+	 */
+	public int getVersion() {
+		return _version;
+	}
+
+	/**
+	 * Whether this is the current version of the recipe.
+	 */
+	public boolean isCurrent() {
+		return _version == currentVersion(_variant, _imageType);
+	}
+
+	/**
+	 * The key of the preview variant in storage, including the version and the engine, e.g.
+	 * <code>h480-v2-opencv</code>.
+	 *
+	 * <p>
+	 * Previews of version <code>1</code> are stored under the variant name alone, where they have been stored before
+	 * recipes were versioned.
+	 * </p>
+	 */
+	public String getKey() {
+		if (_version <= 1) {
+			return _variant;
+		}
+		String key = _variant.isEmpty() ? "v" + _version : _variant + VERSION_SEPARATOR + _version;
+		return _engine == null ? key : key + ENGINE_SEPARATOR + _engine;
+	}
+
+	/**
+	 * Whether the given {@link #getKey() key} and format designate the current version of a recipe.
+	 *
+	 * @param engine
+	 *        The {@link PreviewEngine#getName(String) name} of the engine currently creating previews in the given
+	 *        format.
+	 */
+	public static boolean isCurrent(String key, String imageType, String engine) {
+		String variant;
+		String version;
+		int sep = key.lastIndexOf(VERSION_SEPARATOR);
+		if (sep >= 0) {
+			variant = key.substring(0, sep);
+			version = key.substring(sep + VERSION_SEPARATOR.length());
+		} else if (key.matches("v[0-9]+(-.*)?")) {
+			// Default preview.
+			variant = "";
+			version = key.substring(1);
+		} else {
+			variant = key;
+			version = "1";
+		}
+
+		String keyEngine = null;
+		int engineSep = version.indexOf(ENGINE_SEPARATOR);
+		if (engineSep >= 0) {
+			keyEngine = version.substring(engineSep + 1);
+			version = version.substring(0, engineSep);
+		}
+
+		int currentVersion = currentVersion(variant, imageType);
+		String currentEngine = MICRO.equals(variant) || currentVersion <= 1 ? null : engine;
+		try {
+			return Integer.parseInt(version) == currentVersion && Objects.equals(keyEngine, currentEngine);
+		} catch (NumberFormatException ex) {
+			return false;
+		}
+	}
+
+	private static int currentVersion(String variant, String imageType) {
+		if (MICRO.equals(variant)) {
+			return MICRO_VERSION;
+		}
+		switch (imageType) {
+			case "png":
+				return PNG_VERSION;
+			case "webp":
+				return WEBP_VERSION;
+			default:
+				return JPG_VERSION;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return (_variant.isEmpty() ? "default" : _variant) + "." + _imageType + " v" + _version
+			+ (_engine == null ? "" : " " + _engine);
+	}
+
+}
@@ -0,0 +1,404 @@
+/*
+ * Copyright (c) 2026 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package de.haumacher.imageServer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+
+/**
+ * Central storage for previews of all albums in a single directory.
+ *
+ * <p>
+ * An entry is named by a hash over the identity of its original (the absolute path, size and modification time) and
+ * the preview variant, which includes the {@link PreviewRecipe recipe} version. A modified, moved or renamed original
+ * therefore never hits an outdated entry. Entries that can no longer be hit and entries of outdated recipes are
+ * removed by {@link #collectGarbage()}.
+ * </p>
+ *
+ * <p>
+ * The total size of all entries is limited by a quota. When the quota is exceeded, least recently used entries are
+ * evicted. Access times are tracked in memory only, after a restart entries are ordered by their creation time.
+ * </p>
+ *
+ * <p>
+ * To find the original of an entry, a journal in the store directory records the original path and variant of each
+ * entry created. Entries not recorded in the journal are considered orphans.
+ * </p>
+ */
+public class PreviewStore {
+
+	private static final Logger LOG = Logger.getLogger(PreviewStore.class.getName());
+
+	private static final String JOURNAL = "journal.txt";
+
+	/**
+	 * Fraction of the quota an eviction reduces the store size to, so that not every new entry triggers an eviction.
+	 */
+	private static final double LOW_WATERMARK = 0.9;
+
+	private final File _dir;
+
+	private final long _quota;
+
+	private final Predicate<String> _current;
+
+	private final File _journal;
+
+	private final ConcurrentMap<String, Entry> _entries = new ConcurrentHashMap<>();
+
+	private final AtomicLong _size = new AtomicLong();
+
+	private final AtomicBoolean _evicting = new AtomicBoolean();
+
+	/**
+	 * Lock for writing the journal.
+	 */
+	private final Object _journalLock = new Object();
+
+	/**
+	 * Creates a {@link PreviewStore} and indexes the entries already present in the given directory.
+	 *
+	 * @param dir
+	 *        The directory to store previews in, created if it does not exist.
+	 * @param quota
+	 *        The maximum total size of all entries in bytes, <code>0</code> for no limit.
+	 * @param current
+	 *        Whether a variant with format suffix, e.g. <code>h480.webp</code>, is created with a current recipe.
+	 *        Entries of other variants are removed by {@link #collectGarbage()}.
+	 */
+	public PreviewStore(File dir, long quota, Predicate<String> current) throws IOException {
+		_dir = dir;
+		_quota = quota;
+		_current = current;
+		_journal = new File(dir, JOURNAL);
+
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create preview store: " + dir);
+		}
+		scan();
+	}
+
+	/**
+	 * The directory previews are stored in.
+	 */
+	public File getDir() {
+		return _dir;
+	}
+
+	/**
+	 * The maximum total size of all entries in bytes, <code>0</code> for no limit.
+	 */
+	public long getQuota() {
+		return _quota;
+	}
+
+	/**
+	 * The total size of all entries in bytes.
+	 */
+	public long getSize() {
+		return _size.get();
+	}
+
+	/**
+	 * The number of entries in this store.
+	 */
+	public int getEntryCount() {
+		return _entries.size();
+	}
+
+	private void scan() {
+		// Hidden directories are not part of the store, e.g. a metadata index kept next to it.
+		File[] shards = _dir.listFiles(dir -> dir.isDirectory() && !dir.getName().startsWith("."));
+		if (shards == null) {
+			return;
+		}
+		for (File shard : shards) {
+			File[] files = shard.listFiles();
+			if (files == null) {
+				continue;
+			}
+			for (File file : files) {
+				String name = file.getName();
+				if (name.startsWith(".")) {
+					// Left over from an interrupted generation.
+					file.delete();
+					continue;
+				}
+				Entry entry = new Entry(file, file.length(), file.lastModified());
+				_entries.put(key(file), entry);
+				_size.addAndGet(entry._size);
+			}
+		}
+		LOG.info("Preview store '" + _dir + "' contains " + _entries.size() + " entries with " + (_size.get() >> 20) + " MB.");
+	}
+
+	/**
+	 * The file of the entry for the given preview variant.
+	 *
+	 * <p>
+	 * The entry file is not guaranteed to exist. Since the name of an entry changes with its original, an existing
+	 * entry is always up to date.
+	 * </p>
+	 *
+	 * @param original
+	 *        The original image or video file.
+	 * @param variant
+	 *        The variant of the preview, e.g. size and format.
+	 * @param imageType
+	 *        The file suffix of the preview format.
+	 */
+	public File entry(File original, String variant, String imageType) {
+		String key = key(original, variant + '.' + imageType);
+		return new File(new File(_dir, key.substring(0, 2)), key + '.' + imageType);
+	}
+
+	/**
+	 * Marks the given entry as recently used.
+	 */
+	public void accessed(File entryFile) {
+		Entry entry = _entries.get(key(entryFile));
+		if (entry != null) {
+			entry._lastAccess = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * Adds an entry that has been written to its {@link #entry(File, String, String) location}.
+	 *
+	 * <p>
+	 * If the quota is exceeded, least recently used entries are evicted.
+	 * </p>
+	 *
+	 * @param original
+	 *        The original the entry was created from.
+	 * @param variant
+	 *        The variant the entry was created for.
+	 * @param entryFile
+	 *        The entry file.
+	 */
+	public void stored(File original, String variant, File entryFile) throws IOException {
+		String name = entryFile.getName();
+		String key = key(entryFile);
+		String imageType = name.substring(key.length() + 1);
+
+		// Journal and entry are updated together, otherwise a concurrent compaction of the journal could drop the
+		// record of an entry not yet registered, and a garbage collection after a restart would consider the entry an
+		// orphan.
+		String record = key + '\t' + variant + '.' + imageType + '\t' + original.getAbsolutePath() + '\n';
+		long now = System.currentTimeMillis();
+		Entry before;
+		synchronized (_journalLock) {
+			Files.write(_journal.toPath(), record.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE,
+				StandardOpenOption.APPEND);
+			before = _entries.put(key, new Entry(entryFile, entryFile.length(), now));
+		}
+		if (before != null) {
+			_size.addAndGet(-before._size);
+		}
+		if (_size.addAndGet(entryFile.length()) > _quota && _quota > 0) {
+			evict();
+		}
+	}
+
+	private void evict() {
+		if (!_evicting.compareAndSet(false, true)) {
+			// Already running.
+			return;
+		}
+		try {
+			long target = (long) (_quota * LOW_WATERMARK);
+
+			// Access times are copied, since they may change while sorting.
+			List<Candidate> candidates = new ArrayList<>(_entries.size());
+			for (Map.Entry<String, Entry> entry : _entries.entrySet()) {
+				candidates.add(new Candidate(entry.getKey(), entry.getValue()));
+			}
+			candidates.sort(Comparator.comparingLong(c -> c._lastAccess));
+
+			int evicted = 0;
+			for (Candidate candidate : candidates) {
+				if (_size.get() <= target) {
+					break;
+				}
+				if (remove(candidate._key, candidate._entry)) {
+					evicted++;
+				}
+			}
+			LOG.fine("Evicted " + evicted + " entries from preview store '" + _dir + "'.");
+		} finally {
+			_evicting.set(false);
+		}
+	}
+
+	/**
+	 * Removes all entries that can no longer be hit.
+	 *
+	 * <p>
+	 * An entry is an orphan, if its original has been deleted, modified, moved or renamed, or if it has been created
+	 * with a recipe that is no longer current. The journal is compacted to the remaining entries.
+	 * </p>
+	 *
+	 * @return The number of removed entries.
+	 */
+	public int collectGarbage() throws IOException {
+		// Entries created after this snapshot are not touched, entries in the snapshot are already journaled.
+		Set<String> candidates = new HashSet<>(_entries.keySet());
+
+		Set<String> live = new HashSet<>();
+		try (BufferedReader in = Files.newBufferedReader(_journal.toPath(), StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] record = line.split("\t", 3);
+				if (record.length < 3) {
+					continue;
+				}
+				String key = record[0];
+				if (!candidates.contains(key) || live.contains(key)) {
+					continue;
+				}
+				if (_current.test(record[1]) && key.equals(key(new File(record[2]), record[1]))) {
+					live.add(key);
+				}
+			}
+		} catch (NoSuchFileException ex) {
+			// Nothing journaled yet.
+		}
+
+		int removed = 0;
+		for (String key : candidates) {
+			if (!live.contains(key)) {
+				Entry entry = _entries.get(key);
+				if (entry != null && remove(key, entry)) {
+					removed++;
+				}
+			}
+		}
+
+		compactJournal();
+		LOG.info("Removed " + removed + " orphans from preview store '" + _dir + "', " + _entries.size()
+			+ " entries with " + (_size.get() >> 20) + " MB remaining.");
+		return removed;
+	}
+
+	private void compactJournal() throws IOException {
+		synchronized (_journalLock) {
+			if (!_journal.exists()) {
+				return;
+			}
+			File tmp = new File(_dir, JOURNAL + ".tmp");
+			Set<String> written = new HashSet<>();
+			try (BufferedReader in = Files.newBufferedReader(_journal.toPath(), StandardCharsets.UTF_8)) {
+				StringBuilder out = new StringBuilder();
+				String line;
+				while ((line = in.readLine()) != null) {
+					int sep = line.indexOf('\t');
+					if (sep < 0) {
+						continue;
+					}
+					String key = line.substring(0, sep);
+					if (_entries.containsKey(key) && written.add(key)) {
+						out.append(line).append('\n');
+					}
+				}
+				Files.write(tmp.toPath(), out.toString().getBytes(StandardCharsets.UTF_8));
+			}
+			Files.move(tmp.toPath(), _journal.toPath(), StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private boolean remove(String key, Entry entry) {
+		if (_entries.remove(key, entry)) {
+			entry._file.delete();
+			_size.addAndGet(-entry._size);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * The key of the given entry file.
+	 */
+	private static String key(File entryFile) {
+		String name = entryFile.getName();
+		int dot = name.indexOf('.');
+		return dot < 0 ? name : name.substring(0, dot);
+	}
+
+	/**
+	 * The key of the entry for the given variant of the given original.
+	 */
+	private static String key(File original, String variant) {
+		String identity = original.getAbsolutePath() + '\n' + original.length() + '\n' + original.lastModified()
+			+ '\n' + variant;
+
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException ex) {
+			throw new AssertionError("SHA-1 is required to be supported.", ex);
+		}
+		byte[] hash = digest.digest(identity.getBytes(StandardCharsets.UTF_8));
+
+		StringBuilder result = new StringBuilder(2 * hash.length);
+		for (byte b : hash) {
+			result.append(Character.forDigit((b >> 4) & 0xF, 16));
+			result.append(Character.forDigit(b & 0xF, 16));
+		}
+		return result.toString();
+	}
+
+	private static final class Entry {
+
+		final File _file;
+
+		final long _size;
+
+		volatile long _lastAccess;
+
+		Entry(File file, long size, long lastAccess) {
+			_file = file;
+			_size = size;
+			_lastAccess = lastAccess;
+		}
+
+	}
+
+	private static final class Candidate {
+
+		final String _key;
+
+		final Entry _entry;
+
+		final long _lastAccess;
+
+		Candidate(String key, Entry entry) {
+			_key = key;
+			_entry = entry;
+			_lastAccess = entry._lastAccess;
+		}
+
+	}
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2026 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package de.haumacher.imageServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Description of a response body consisting of fixed bytes and regions of a single file or buffer.
+ *
+ * <p>
+ * The body is described first and written afterwards, either {@link #send(OutputStream, FileChannel) blocking} or
+ * through an {@link AsyncFileWriter}.
+ * </p>
+ */
+public class ResponseBody {
+
+	/**
+	 * A part of a {@link ResponseBody}.
+	 */
+	public static final class Part {
+		private final byte[] _bytes;
+		private final long _position;
+		private final long _length;
+
+		Part(byte[] bytes) {
+			_bytes = bytes;
+			_position = 0;
+			_length = bytes.length;
+		}
+
+		Part(long position, long length) {
+			_bytes = null;
+			_position = position;
+			_length = length;
+		}
+
+		/**
+		 * The fixed contents of this part, or <code>null</code>, if this part is a {@link #isRegion() file region}.
+		 */
+		public byte[] getBytes() {
+			return _bytes;
+		}
+
+		/**
+		 * Whether this part is a region of the delivered file.
+		 */
+		public boolean isRegion() {
+			return _bytes == null;
+		}
+
+		/**
+		 * The start position of the file region.
+		 */
+		public long getPosition() {
+			return _position;
+		}
+
+		/**
+		 * The number of bytes in this part.
+		 */
+		public long getLength() {
+			return _length;
+		}
+	}
+
+	private final List<Part> _parts = new ArrayList<>();
+
+	private long _length;
+
+	/**
+	 * Appends fixed bytes to the body.
+	 */
+	public ResponseBody addBytes(byte[] bytes) {
+		return add(new Part(bytes));
+	}
+
+	/**
+	 * Appends a region of the delivered file to the body.
+	 */
+	public ResponseBody addRegion(long position, long length) {
+		return add(new Part(position, length));
+	}
+
+	private ResponseBody add(Part part) {
+		_parts.add(part);
+		_length += part.getLength();
+		return this;
+	}
+
+	/**
+	 * All parts of this body in delivery order.
+	 */
+	public List<Part> getParts() {
+		return _parts;
+	}
+
+	/**
+	 * The total number of bytes in this body.
+	 */
+	public long getLength() {
+		return _length;
+	}
+
+	/**
+	 * Writes this body to the given stream in a blocking fashion.
+	 *
+	 * @param out
+	 *        The stream of the response.
+	 * @param channel
+	 *        The file to read regions from.
+	 */
+	public void send(OutputStream out, FileChannel channel) throws IOException {
+		for (Part part : _parts) {
+			if (part.isRegion()) {
+				FileTransfer.send(out, channel, part.getPosition(), part.getLength());
+			} else {
+				out.write(part.getBytes());
+			}
+		}
+	}
+
+	/**
+	 * Writes this body to the given stream in a blocking fashion.
+	 *
+	 * @param out
+	 *        The stream of the response.
+	 * @param buffer
+	 *        The buffer to read regions from.
+	 */
+	public void send(OutputStream out, ByteBuffer buffer) throws IOException {
+		for (Part part : _parts) {
+			if (part.isRegion()) {
+				FileTransfer.send(out, buffer, part.getPosition(), part.getLength());
+			} else {
+				out.write(part.getBytes());
+			}
+		}
+	}
+
+}
@@ -3,17 +3,24 @@
  */
 package de.haumacher.imageServer.cache;
 
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Date;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.imageio.ImageIO;
+
 import com.drew.imaging.ImageMetadataReader;
 import com.drew.imaging.ImageProcessingException;
 import com.drew.metadata.Metadata;
 import com.drew.metadata.MetadataException;
 import com.drew.metadata.exif.ExifIFD0Directory;
 import com.drew.metadata.exif.ExifSubIFDDirectory;
+import com.drew.metadata.exif.ExifThumbnailDirectory;
 import com.drew.metadata.jpeg.JpegCommentDirectory;
 import com.drew.metadata.jpeg.JpegDirectory;
 import com.drew.metadata.mov.QuickTimeDirectory;
@@ -22,10 +29,14 @@ import com.drew.metadata.mp4.Mp4Directory;
 import com.drew.metadata.mp4.media.Mp4VideoDirectory;
 import com.drew.metadata.png.PngDirectory;
 
+import de.haumacher.imageServer.ConcurrencyLimit;
+import de.haumacher.imageServer.ExifReaderPatch;
+import de.haumacher.imageServer.ImageScaler;
 import de.haumacher.imageServer.shared.model.AlbumInfo;
 import de.haumacher.imageServer.shared.model.ImageKind;
 import de.haumacher.imageServer.shared.model.ImagePart;
 import de.haumacher.imageServer.shared.model.Orientation;
+import de.haumacher.imageServer.shared.util.BlurHash;
 import de.haumacher.imageServer.shared.util.Orientations;
 
 /**
@@ -36,6 +47,22 @@ import de.haumacher.imageServer.shared.util.Orientations;
 public class ImageData extends ImagePart {
 	
 	private static final Logger LOG = Logger.getLogger(ImageData.class.getName());
+	
+	/**
+	 * Limit for the number of files being analyzed concurrently.
+	 */
+	public static final ConcurrencyLimit ANALYZE_LIMIT = new ConcurrencyLimit("Metadata analysis");
+	
+	/**
+	 * Size in pixels of the longer side of the image, a placeholder is computed from.
+	 */
+	private static final int PLACEHOLDER_SIZE = 32;
+	
+	static {
+		// Required for reading embedded thumbnails.
+		ExifReaderPatch.install();
+	}
+	
 	private String _contentType;
 	private File _file;
 
@@ -60,11 +87,26 @@ public class ImageData extends ImagePart {
 	
 	/** 
 	 * Loads {@link ImageData} from the given image file.
+	 * 
+	 * @param previews
+	 *        Access to existing previews for computing the placeholder of an image without embedded thumbnail.
 	 */
-	public static ImageData analyze(AlbumInfo album, File file) throws ImageProcessingException, IOException, MetadataException {
+	public static ImageData analyze(AlbumInfo album, File file, PreviewLookup previews) throws ImageProcessingException, IOException, MetadataException {
+		Metadata metadata = readMetadata(file);
+		ImageData result = createImageData(album, file, metadata);
+		updatePlaceholder(result, file, metadata, previews);
+		return result;
+	}
+
+	private static Metadata readMetadata(File file) throws ImageProcessingException, IOException {
+		try (ConcurrencyLimit.Permit permit = ANALYZE_LIMIT.enter()) {
+			return ImageMetadataReader.readMetadata(file);
+		}
+	}
+
+	private static ImageData createImageData(AlbumInfo album, File file, Metadata metadata) throws MetadataException {
 		ImageData result = new ImageData(album, file, file.getName());
 		
-		Metadata metadata = ImageMetadataReader.readMetadata(file);
 		Date date = date(metadata);
 		if (date == null) {
 			date = new Date(file.lastModified());
@@ -77,10 +119,7 @@ public class ImageData extends ImagePart {
 			int rawWidth = jpegDirectory.getImageWidth();
 			int rawHeight = jpegDirectory.getImageHeight();
 			
-			ExifIFD0Directory exifIFD0Directory = metadata.getFirstDirectoryOfType(ExifIFD0Directory.class);
-			int orientation = exifIFD0Directory == null || !exifIFD0Directory.containsTag(ExifIFD0Directory.TAG_ORIENTATION) ? 1 : exifIFD0Directory.getInt(ExifIFD0Directory.TAG_ORIENTATION);
-			
-			Orientation tx = Orientations.fromCode(orientation);
+			Orientation tx = Orientations.fromCode(orientation(metadata));
 			result.setWidth(Orientations.width(tx, rawWidth, rawHeight));
 			result.setHeight(Orientations.height(tx, rawWidth, rawHeight));
 			
@@ -175,6 +214,99 @@ public class ImageData extends ImagePart {
 		throw new IllegalArgumentException("Neither JPG, PNG, MOV, nor MP4 file: " + file);
 	}
 
+	/**
+	 * Computes the {@link ImagePart#getBlurHash() placeholder} and {@link ImagePart#getColor() color} of the given
+	 * image, if this is possible without decoding the image itself.
+	 * 
+	 * <p>
+	 * The placeholder is computed from the thumbnail embedded in the EXIF data of a JPEG image, or from an already
+	 * existing preview. Otherwise, the image is left unchanged. An embedded thumbnail is also recorded in
+	 * {@link ImagePart#isThumbnail()}.
+	 * </p>
+	 * 
+	 * @param part
+	 *        The image to update.
+	 * @param file
+	 *        The file of the given image.
+	 * @param metadata
+	 *        The metadata of the given file, <code>null</code> if it has not been read yet.
+	 * @param previews
+	 *        Access to existing previews of the given file.
+	 */
+	public static void updatePlaceholder(ImagePart part, File file, Metadata metadata, PreviewLookup previews) {
+		try {
+			if (part.getKind() == ImageKind.IMAGE) {
+				if (metadata == null) {
+					metadata = readMetadata(file);
+				}
+				ExifThumbnailDirectory thumbnailDirectory = metadata.getFirstDirectoryOfType(ExifThumbnailDirectory.class);
+				if (thumbnailDirectory != null) {
+					byte[] thumbnail = (byte[]) thumbnailDirectory.getObject(ExifReaderPatch.TAG_THUMBNAIL_DATA);
+					if (thumbnail != null) {
+						// Micro previews are only extracted from JPEG images.
+						part.setThumbnail(metadata.getFirstDirectoryOfType(JpegDirectory.class) != null);
+
+						BufferedImage image = ImageIO.read(new ByteArrayInputStream(thumbnail));
+						if (image != null) {
+							setPlaceholder(part, image, Orientations.fromCode(orientation(metadata)));
+							return;
+						}
+					}
+				}
+			}
+		} catch (IOException | ImageProcessingException | MetadataException | RuntimeException ex) {
+			// The placeholder is optional.
+			LOG.log(Level.FINE, "Cannot compute placeholder for '" + file + "'.", ex);
+		}
+		updatePlaceholderFromPreview(part, file, previews);
+	}
+
+	/**
+	 * Computes the {@link ImagePart#getBlurHash() placeholder} and {@link ImagePart#getColor() color} of the given
+	 * image from an already existing preview.
+	 * 
+	 * @see #updatePlaceholder(ImagePart, File, Metadata, PreviewLookup)
+	 */
+	public static void updatePlaceholderFromPreview(ImagePart part, File file, PreviewLookup previews) {
+		try {
+			BufferedImage image;
+			try (InputStream in = previews.openPreview(file)) {
+				if (in == null) {
+					return;
+				}
+				image = ImageIO.read(in);
+			}
+			if (image != null) {
+				setPlaceholder(part, image, Orientation.IDENTITY);
+			}
+		} catch (IOException | RuntimeException ex) {
+			// The placeholder is optional.
+			LOG.log(Level.FINE, "Cannot compute placeholder for '" + file + "'.", ex);
+		}
+	}
+
+	private static void setPlaceholder(ImagePart part, BufferedImage image, Orientation orientation) {
+		int width = Orientations.width(orientation, image.getWidth(), image.getHeight());
+		int height = Orientations.height(orientation, image.getWidth(), image.getHeight());
+		boolean landscape = width >= height;
+		double scale = ((double) PLACEHOLDER_SIZE) / Math.max(width, height);
+		if (scale < 1.0) {
+			width = Math.max(1, (int) Math.round(width * scale));
+			height = Math.max(1, (int) Math.round(height * scale));
+		}
+		BufferedImage reduced = ImageScaler.scale(image, orientation, width, height);
+		int[] pixels = reduced.getRGB(0, 0, width, height, null, 0, width);
+		
+		String blurHash = BlurHash.encode(pixels, width, height, landscape ? 4 : 3, landscape ? 3 : 4);
+		part.setBlurHash(blurHash);
+		part.setColor(String.format("#%06x", BlurHash.averageColor(blurHash)));
+	}
+
+	private static int orientation(Metadata metadata) throws MetadataException {
+		ExifIFD0Directory exifIFD0Directory = metadata.getFirstDirectoryOfType(ExifIFD0Directory.class);
+		return exifIFD0Directory == null || !exifIFD0Directory.containsTag(ExifIFD0Directory.TAG_ORIENTATION) ? 1 : exifIFD0Directory.getInt(ExifIFD0Directory.TAG_ORIENTATION);
+	}
+
 	private static Date date(Metadata metadata) {
 		ExifSubIFDDirectory directory = metadata.getFirstDirectoryOfType(ExifSubIFDDirectory.class);								
 		if (directory == null) {
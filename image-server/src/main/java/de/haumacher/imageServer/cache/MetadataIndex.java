@@ -0,0 +1,373 @@
+/*
+ * Copyright (c) 2026 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package de.haumacher.imageServer.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.drew.imaging.ImageProcessingException;
+import com.drew.metadata.MetadataException;
+import com.google.common.hash.Hashing;
+
+import de.haumacher.imageServer.shared.model.AlbumInfo;
+import de.haumacher.imageServer.shared.model.ImageKind;
+import de.haumacher.imageServer.shared.model.ImagePart;
+
+/**
+ * Persistent results of {@link ImageData#analyze(AlbumInfo, File, PreviewLookup) analyzing} the images of a directory.
+ *
+ * <p>
+ * The index is stored in a compact binary file in the cache directory of the album, or in a central index directory
+ * named by a hash of the album path. An entry is valid as long as size and modification time of its image are
+ * unchanged. This avoids parsing the metadata of all images again after a restart.
+ * </p>
+ *
+ * <p>
+ * An index is not shared between threads. Concurrent updates of the same index file are not merged, the last one
+ * wins.
+ * </p>
+ */
+public class MetadataIndex {
+
+	private static final Logger LOG = Logger.getLogger(MetadataIndex.class.getName());
+
+	/**
+	 * Name of the index file in the cache directory of an album.
+	 */
+	public static final String INDEX_FILE = "metadata.idx";
+
+	private static final int MAGIC = 0x56414D49; // "VAMI"
+
+	private static final int VERSION = 2;
+
+	/**
+	 * Plausibility limit for the length of a string in the index file.
+	 */
+	private static final int MAX_STRING_LENGTH = 1024 * 1024;
+
+	private final File _file;
+
+	private final Map<String, Entry> _entries;
+
+	private final PreviewLookup _previews;
+
+	private boolean _modified;
+
+	private MetadataIndex(File file, Map<String, Entry> entries, PreviewLookup previews) {
+		_file = file;
+		_entries = entries;
+		_previews = previews;
+	}
+
+	/**
+	 * Reads the index of the given album directory from the album's cache directory.
+	 *
+	 * @see #load(File, File, PreviewLookup)
+	 */
+	public static MetadataIndex load(File dir, PreviewLookup previews) {
+		return load(dir, null, previews);
+	}
+
+	/**
+	 * Reads the index of the given album directory.
+	 *
+	 * @param indexDir
+	 *        The central directory to store indexes of all albums in, <code>null</code> to store the index in the
+	 *        cache directory of the album.
+	 * @param previews
+	 *        Access to existing previews for computing placeholders of images without embedded thumbnail.
+	 * @return The index, empty if none has been written before or it cannot be read.
+	 */
+	public static MetadataIndex load(File dir, File indexDir, PreviewLookup previews) {
+		File file = indexFile(dir, indexDir);
+		Map<String, Entry> entries = new HashMap<>();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != MAGIC) {
+				LOG.warning("Ignoring metadata index of unknown format: " + file);
+			} else if (in.readInt() != VERSION) {
+				// Written by an older version, images are analyzed again.
+				LOG.fine("Ignoring outdated metadata index: " + file);
+			} else {
+				for (int n = 0, cnt = in.readInt(); n < cnt; n++) {
+					String name = readString(in);
+					entries.put(name, Entry.read(in));
+				}
+			}
+		} catch (FileNotFoundException ex) {
+			// Not yet indexed.
+		} catch (IOException | RuntimeException ex) {
+			LOG.log(Level.WARNING, "Ignoring corrupt metadata index: " + file, ex);
+			entries.clear();
+		}
+		return new MetadataIndex(file, entries, previews);
+	}
+
+	private static File indexFile(File dir, File indexDir) {
+		if (indexDir == null) {
+			return new File(new File(dir, ".vacache"), INDEX_FILE);
+		}
+		String hash = Hashing.sha256().hashString(dir.getAbsolutePath(), StandardCharsets.UTF_8).toString();
+		return new File(indexDir, hash + ".idx");
+	}
+
+	/**
+	 * The number of images in this index.
+	 */
+	public int size() {
+		return _entries.size();
+	}
+
+	/**
+	 * Describes the given image file, from this index if it is up to date, otherwise by analyzing the file.
+	 *
+	 * @see ImageData#analyze(AlbumInfo, File, PreviewLookup)
+	 */
+	public ImageData analyze(AlbumInfo album, File file) throws ImageProcessingException, IOException, MetadataException {
+		Entry entry = lookup(file);
+		if (entry != null) {
+			ImageData result = new ImageData(album, file, file.getName());
+			entry.applyTo(result);
+			return result;
+		}
+
+		ImageData result = ImageData.analyze(album, file, _previews);
+		put(file, result);
+		return result;
+	}
+
+	/**
+	 * Computes a missing {@link ImagePart#getBlurHash() placeholder} for the given image and sets its
+	 * {@link ImagePart#isThumbnail() thumbnail} flag.
+	 *
+	 * <p>
+	 * If the file has been analyzed before, its metadata is not read again, only an existing preview is used. The
+	 * index is only filled from an analysis of the file itself, never from the given description, since this may have
+	 * been edited in the album.
+	 * </p>
+	 *
+	 * @see ImageData#updatePlaceholder(ImagePart, File, com.drew.metadata.Metadata, PreviewLookup)
+	 */
+	public void updatePlaceholder(ImagePart part, File file) {
+		Entry entry = lookup(file);
+		if (entry == null) {
+			// Read the metadata only once, the result is indexed.
+			ImageData analyzed;
+			try {
+				analyzed = analyze(null, file);
+			} catch (IOException | ImageProcessingException | MetadataException | RuntimeException ex) {
+				// The placeholder is optional.
+				LOG.log(Level.FINE, "Cannot analyze '" + file + "'.", ex);
+				return;
+			}
+			part.setThumbnail(analyzed.isThumbnail());
+			if (part.getBlurHash().isEmpty()) {
+				part.setBlurHash(analyzed.getBlurHash());
+				part.setColor(analyzed.getColor());
+			}
+			return;
+		}
+
+		part.setThumbnail(entry._thumbnail);
+		if (!entry._blurHash.isEmpty()) {
+			if (part.getBlurHash().isEmpty()) {
+				part.setBlurHash(entry._blurHash);
+				part.setColor(entry._color);
+			}
+			return;
+		}
+		if (!part.getBlurHash().isEmpty()) {
+			return;
+		}
+
+		// The image has no embedded thumbnail.
+		ImageData.updatePlaceholderFromPreview(part, file, _previews);
+		if (part.getBlurHash().isEmpty()) {
+			return;
+		}
+		_entries.put(file.getName(), entry.withPlaceholder(part.getBlurHash(), part.getColor()));
+		_modified = true;
+	}
+
+	/**
+	 * Drops the entries of all images not in the given set of names.
+	 */
+	public void retain(Set<String> names) {
+		if (_entries.keySet().retainAll(names)) {
+			_modified = true;
+		}
+	}
+
+	/**
+	 * Writes this index, if it has been modified.
+	 */
+	public void save() {
+		if (!_modified) {
+			return;
+		}
+		File dir = _file.getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			LOG.log(Level.INFO, "Cannot create directory for metadata index: " + dir);
+			return;
+		}
+
+		File tmp = null;
+		try {
+			tmp = File.createTempFile(".tmp-" + INDEX_FILE, ".tmp", dir);
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(_entries.size());
+				for (Map.Entry<String, Entry> entry : _entries.entrySet()) {
+					writeString(out, entry.getKey());
+					entry.getValue().write(out);
+				}
+			}
+			Files.move(tmp.toPath(), _file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+			_modified = false;
+		} catch (IOException ex) {
+			// The index is only an optimization, albums may be read-only.
+			LOG.log(Level.INFO, "Cannot write metadata index '" + _file + "', images are analyzed again after a restart: "
+				+ ex.getMessage());
+		} finally {
+			if (tmp != null) {
+				tmp.delete();
+			}
+		}
+	}
+
+	private Entry lookup(File file) {
+		Entry entry = _entries.get(file.getName());
+		if (entry == null || entry._size != file.length() || entry._lastModified != file.lastModified()) {
+			return null;
+		}
+		return entry;
+	}
+
+	private void put(File file, ImagePart image) {
+		_entries.put(file.getName(), new Entry(file.length(), file.lastModified(), image));
+		_modified = true;
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0 || length > MAX_STRING_LENGTH) {
+			throw new IOException("Invalid string length: " + length);
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Analysis result of a single image.
+	 */
+	private static final class Entry {
+
+		final long _size;
+
+		final long _lastModified;
+
+		final ImageKind _kind;
+
+		final int _width;
+
+		final int _height;
+
+		final long _date;
+
+		final String _comment;
+
+		final String _blurHash;
+
+		final String _color;
+
+		final boolean _thumbnail;
+
+		Entry(long size, long lastModified, ImagePart image) {
+			this(size, lastModified, image.getKind(), image.getWidth(), image.getHeight(), image.getDate(),
+				image.getComment(), image.getBlurHash(), image.getColor(), image.isThumbnail());
+		}
+
+		private Entry(long size, long lastModified, ImageKind kind, int width, int height, long date, String comment,
+				String blurHash, String color, boolean thumbnail) {
+			_size = size;
+			_lastModified = lastModified;
+			_kind = kind;
+			_width = width;
+			_height = height;
+			_date = date;
+			_comment = comment;
+			_blurHash = blurHash;
+			_color = color;
+			_thumbnail = thumbnail;
+		}
+
+		Entry withPlaceholder(String blurHash, String color) {
+			return new Entry(_size, _lastModified, _kind, _width, _height, _date, _comment, blurHash, color,
+				_thumbnail);
+		}
+
+		void applyTo(ImagePart image) {
+			image.setKind(_kind);
+			image.setWidth(_width);
+			image.setHeight(_height);
+			image.setDate(_date);
+			image.setComment(_comment);
+			image.setBlurHash(_blurHash);
+			image.setColor(_color);
+			image.setThumbnail(_thumbnail);
+		}
+
+		static Entry read(DataInputStream in) throws IOException {
+			long size = in.readLong();
+			long lastModified = in.readLong();
+			ImageKind kind = ImageKind.valueOfProtocol(readString(in));
+			int width = in.readInt();
+			int height = in.readInt();
+			long date = in.readLong();
+			String comment = readString(in);
+			String blurHash = readString(in);
+			String color = readString(in);
+			boolean thumbnail = in.readBoolean();
+			return new Entry(size, lastModified, kind, width, height, date, comment, blurHash, color, thumbnail);
+		}
+
+		void write(DataOutputStream out) throws IOException {
+			out.writeLong(_size);
+			out.writeLong(_lastModified);
+			writeString(out, _kind.protocolName());
+			out.writeInt(_width);
+			out.writeInt(_height);
+			out.writeLong(_date);
+			writeString(out, _comment);
+			writeString(out, _blurHash);
+			writeString(out, _color);
+			out.writeBoolean(_thumbnail);
+		}
+
+	}
+
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2026 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package de.haumacher.imageServer.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import de.haumacher.imageServer.shared.model.ImagePart;
+
+/**
+ * Access to already existing previews of images, used to compute {@link ImagePart#getBlurHash() placeholders} of
+ * images without an embedded thumbnail and informed about changed images.
+ *
+ * @see ResourceCache#setPreviewLookup(PreviewLookup)
+ */
+public interface PreviewLookup {
+
+	/**
+	 * {@link PreviewLookup} that never finds a preview.
+	 */
+	PreviewLookup NONE = file -> null;
+
+	/**
+	 * Opens an existing preview of the given image, without creating one.
+	 *
+	 * @param file
+	 *        The original image file.
+	 * @return The contents of the preview in display orientation, or <code>null</code>, if no preview exists.
+	 */
+	InputStream openPreview(File file) throws IOException;
+
+	/**
+	 * Informs about a created, modified, or deleted image, whose previews must no longer be delivered from memory.
+	 *
+	 * @param file
+	 *        The original image file.
+	 */
+	default void invalidate(File file) {
+		// Nothing cached by default.
+	}
+
+}
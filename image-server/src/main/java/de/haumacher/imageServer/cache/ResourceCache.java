@@ -5,36 +5,58 @@ package de.haumacher.imageServer.cache;
 
 import static java.nio.file.StandardWatchEventKinds.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
 import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
 import java.text.DateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.GregorianCalendar;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
 
 import com.drew.imaging.ImageProcessingException;
 import com.drew.metadata.MetadataException;
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.hash.Hashing;
 
 import de.haumacher.imageServer.PathInfo;
 import de.haumacher.imageServer.shared.model.AlbumInfo;
@@ -45,15 +67,23 @@ import de.haumacher.imageServer.shared.model.ImagePart;
 import de.haumacher.imageServer.shared.model.ListingInfo;
 import de.haumacher.imageServer.shared.model.Resource;
 import de.haumacher.imageServer.shared.model.ThumbnailInfo;
+import de.haumacher.imageServer.shared.ui.Settings;
 import de.haumacher.imageServer.shared.util.AlbumUtil;
 import de.haumacher.imageServer.shared.util.UpdateTransient;
 import de.haumacher.msgbuf.json.JsonReader;
+import de.haumacher.msgbuf.json.JsonWriter;
 import de.haumacher.msgbuf.server.io.ReaderAdapter;
+import de.haumacher.msgbuf.server.io.WriterAdapter;
 import de.haumacher.util.servlet.Util;
 
 /**
  * Cache of {@link Resource}s representing directories and files in a photo album.
  *
+ * <p>
+ * Loaded directories are watched for changes, which are applied to their entries in background threads. Looking up
+ * a resource only reads the cache.
+ * </p>
+ *
  * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
  */
 public class ResourceCache {
@@ -68,16 +98,128 @@ public class ResourceCache {
 	static final Pattern DATE_PATTERN = Pattern.compile(
 			"(" + "\\d{4}" + ")" + SEP + "(" + "\\d{2}" + ")" + SEP + "(" + "\\d{2}" + ")");
 
+	/**
+	 * Default for the estimated heap memory used by the cache in bytes.
+	 */
+	public static final long DEFAULT_BUDGET = 64L << 20;
+
+	/**
+	 * Minimum time between two statistics reports in the log.
+	 */
+	private static final long REPORT_INTERVAL = TimeUnit.MINUTES.toMillis(10);
+
+	/**
+	 * Fraction of the cache that can be filled by {@link #preload(PathInfo) preloading}, the rest is left for
+	 * directories loaded on demand.
+	 */
+	private static final double PRELOAD_FRACTION = 0.8;
+
 	private Loader _loader;
 
-	private LoadingCache<PathInfo, Resource> _cache;
+	private LoadingCache<PathInfo, Entry> _cache;
+	
+	private final long _budget;
+	
+	private final AtomicLong _nextReport = new AtomicLong(System.currentTimeMillis() + REPORT_INTERVAL);
 	
 	/** 
-	 * Creates a {@link ResourceCache}.
+	 * Creates a {@link ResourceCache} with the {@link #DEFAULT_BUDGET}.
 	 */
 	public ResourceCache() throws IOException {
+		this(DEFAULT_BUDGET);
+	}
+
+	/** 
+	 * Creates a {@link ResourceCache}.
+	 *
+	 * @param budget
+	 *        The estimated heap memory in bytes, the cached resources may use. Large albums weigh more than small ones.
+	 */
+	public ResourceCache(long budget) throws IOException {
+		_budget = budget;
 		_loader = new Loader();
-		_cache = CacheBuilder.newBuilder().maximumSize(1000).build(_loader);
+		_cache = CacheBuilder.newBuilder()
+			.maximumWeight(budget)
+			.weigher((PathInfo path, Entry entry) -> entry.getWeight())
+			.removalListener((RemovalNotification<PathInfo, Entry> notification) -> _loader
+				.removed(notification.getValue()))
+			.recordStats()
+			.build(_loader);
+		_loader.startWatcher(_cache);
+	}
+
+	/**
+	 * Stops watching loaded directories for changes.
+	 */
+	public void close() throws IOException {
+		_loader.close();
+	}
+
+	/**
+	 * Listener informed whenever an album has been (re-)loaded into the {@link ResourceCache}.
+	 */
+	public interface AlbumListener {
+
+		/**
+		 * Called after the given album has been loaded, or when an album that has been
+		 * {@link ResourceCache#preload(PathInfo) preloaded} is requested for the first time.
+		 *
+		 * <p>
+		 * The call may happen while the cache entry is being computed, implementations must return quickly and must
+		 * not access the {@link ResourceCache}.
+		 * </p>
+		 *
+		 * @param path
+		 *        The album directory.
+		 * @param album
+		 *        The loaded album.
+		 */
+		void onAlbumLoaded(PathInfo path, AlbumInfo album);
+
+	}
+
+	/**
+	 * Sets the {@link AlbumListener} to inform about loaded albums.
+	 *
+	 * @param listener
+	 *        The listener, or <code>null</code> to remove the current listener.
+	 */
+	public void setAlbumListener(AlbumListener listener) {
+		_loader.setAlbumListener(listener);
+	}
+
+	/**
+	 * Sets the ladder of preview heights announced to clients in each {@link AlbumInfo}.
+	 *
+	 * <p>
+	 * Must be set before the first album is loaded.
+	 * </p>
+	 *
+	 * @see AlbumInfo#getPreviewHeights()
+	 */
+	public void setPreviewHeights(int[] heights) {
+		_loader.setPreviewHeights(heights);
+	}
+
+	/**
+	 * Sets the access to existing previews, placeholders of images without embedded thumbnail are computed from.
+	 *
+	 * <p>
+	 * Must be set before the first album is loaded.
+	 * </p>
+	 */
+	public void setPreviewLookup(PreviewLookup previews) {
+		_loader.setPreviewLookup(previews);
+	}
+
+	/**
+	 * Sets the central directory to store the {@link MetadataIndex} of all albums in.
+	 *
+	 * @param indexDir
+	 *        The index directory, <code>null</code> to store each index in the cache directory of its album.
+	 */
+	public void setIndexDirectory(File indexDir) {
+		_loader.setIndexDirectory(indexDir);
 	}
 
 	/**
@@ -94,23 +236,332 @@ public class ResourceCache {
 	 * @return The {@link Resource} describing the system resource.
 	 */
 	public Resource lookup(PathInfo pathInfo) {
-		_loader.processEvents(_cache);
+		Entry entry = lookupEntry(pathInfo);
+		return entry == null ? null : entry.getResource();
+	}
+
+	/**
+	 * Retrieves the {@link Resource} description for the given {@link PathInfo} together with its version.
+	 *
+	 * @param pathInfo
+	 *        The file-system resource to analyze.
+	 * @return The {@link Entry} describing the system resource, or <code>null</code>, if the given path is not known
+	 *         in its album.
+	 */
+	public Entry lookupEntry(PathInfo pathInfo) {
+		reportStats();
 		if (pathInfo.toFile().isDirectory()) {
-			return _cache.getUnchecked(pathInfo);
+			return lookupDir(pathInfo);
 		} else {
-			AlbumInfo container = (AlbumInfo) _cache.getUnchecked(pathInfo.parent());
-			return container.getImageByName().get(pathInfo.getName());
+			return lookupDir(pathInfo.parent()).getImage(pathInfo.getName());
+		}
+	}
+
+	/**
+	 * Loads the given directory into the cache without informing the {@link AlbumListener}.
+	 *
+	 * <p>
+	 * The listener is informed, when the album is looked up for the first time.
+	 * </p>
+	 *
+	 * @see #hasPreloadCapacity()
+	 */
+	public void preload(PathInfo path) {
+		_loader.loadQuietly(() -> lookupDir(path));
+	}
+
+	/**
+	 * Whether further directories can be {@link #preload(PathInfo) preloaded} without displacing other entries.
+	 */
+	public boolean hasPreloadCapacity() {
+		return getWeight() < _budget * PRELOAD_FRACTION;
+	}
+
+	/**
+	 * The estimated heap memory in bytes used by the cached resources.
+	 */
+	public long getWeight() {
+		return _loader.getWeight();
+	}
+
+	/**
+	 * The number of cached directories.
+	 */
+	public long getSize() {
+		return _cache.size();
+	}
+
+	/**
+	 * The hit, miss, load and eviction statistics of this cache.
+	 */
+	public CacheStats getStats() {
+		return _cache.stats();
+	}
+
+	private void reportStats() {
+		long now = System.currentTimeMillis();
+		long next = _nextReport.get();
+		if (now >= next && _nextReport.compareAndSet(next, now + REPORT_INTERVAL)) {
+			CacheStats stats = _cache.stats();
+			Loader.LOG.info("Resource cache: " + _cache.size() + " folders with " + (getWeight() >> 20) + " of "
+				+ (_budget >> 20) + " MB, hit rate " + Math.round(stats.hitRate() * 100) + "% (" + stats.hitCount()
+				+ " hits, " + stats.missCount() + " misses, " + stats.evictionCount() + " evictions), average load time "
+				+ TimeUnit.NANOSECONDS.toMillis((long) stats.averageLoadPenalty()) + " ms.");
 		}
 	}
 
-	static final class Loader extends CacheLoader<PathInfo, Resource> {
+	private Entry lookupDir(PathInfo path) {
+		Entry result = _cache.getUnchecked(path);
+		if (result.isOutdated()) {
+			// The directory changed while it was loaded, an invalidation during loading has no effect.
+			_cache.asMap().remove(path, result);
+			result = _cache.getUnchecked(path);
+		}
+
+		// A preloaded album is announced, when it is first requested.
+		_loader.announce(path, result);
+		return result;
+	}
+
+	/**
+	 * A {@link Resource} loaded into the {@link ResourceCache}.
+	 */
+	public static final class Entry {
+
+		private final Resource _resource;
+
+		private final byte[] _json;
+
+		private final long _version;
+
+		private final long _lastModified;
+
+		/**
+		 * The registration of the loaded directory with the watcher, <code>null</code> if the directory is not watched.
+		 */
+		private final WatchKey _watchKey;
+
+		private final int _weight;
+
+		private volatile byte[] _jsonGzip;
+
+		/**
+		 * Whether the {@link AlbumListener} has been informed about this entry.
+		 */
+		private final AtomicBoolean _announced = new AtomicBoolean();
+
+		/**
+		 * Entries of the images of an album, created on first access.
+		 */
+		private final ConcurrentMap<String, Entry> _images = new ConcurrentHashMap<>();
+
+		/**
+		 * Creates a new {@link Entry} for a watched directory.
+		 */
+		Entry(Resource resource, long lastModified, WatchKey watchKey) {
+			this(resource, lastModified, watchKey, (int) Math.min(Integer.MAX_VALUE, ResourceSize.estimate(resource)));
+		}
+
+		/**
+		 * Creates a {@link Entry}.
+		 */
+		Entry(Resource resource, long lastModified) {
+			this(resource, lastModified, null, 0);
+		}
+
+		private Entry(Resource resource, long lastModified, WatchKey watchKey, int weight) {
+			_resource = resource;
+			_json = encodeJson(resource);
+			_version = Hashing.murmur3_128().hashBytes(_json).asLong();
+			_lastModified = lastModified;
+			_watchKey = watchKey;
+			_weight = weight;
+		}
+
+		/**
+		 * The estimated heap memory in bytes retained by a cached directory.
+		 */
+		int getWeight() {
+			return _weight;
+		}
+
+		/**
+		 * Marks this entry as announced to the {@link AlbumListener}.
+		 *
+		 * @return Whether this entry has not been announced before.
+		 */
+		boolean markAnnounced() {
+			return !_announced.get() && _announced.compareAndSet(false, true);
+		}
+
+		/**
+		 * The entry of the image with the given name in the album of this entry.
+		 *
+		 * <p>
+		 * Image entries are kept with their album, so that their serializations are created only once.
+		 * </p>
+		 *
+		 * @return The image entry, or <code>null</code>, if there is no such image in the album.
+		 */
+		Entry getImage(String name) {
+			if (!(_resource instanceof AlbumInfo)) {
+				return null;
+			}
+			Entry result = _images.get(name);
+			if (result == null) {
+				ImagePart image = ((AlbumInfo) _resource).getImageByName().get(name);
+				if (image == null) {
+					return null;
+				}
+				result = new Entry(image, _lastModified);
+				Entry before = _images.putIfAbsent(name, result);
+				if (before != null) {
+					result = before;
+				}
+			}
+			return result;
+		}
+
+		/**
+		 * Whether a change has been reported for the loaded directory.
+		 */
+		boolean isOutdated() {
+			return _watchKey != null && !_watchKey.isValid();
+		}
+
+		/**
+		 * The cached {@link Resource}.
+		 */
+		public Resource getResource() {
+			return _resource;
+		}
+
+		/**
+		 * Version of {@link #getResource()}.
+		 *
+		 * <p>
+		 * The version is a hash of the {@link #getJson() serialization}. An unchanged resource keeps its version when it
+		 * is loaded again, e.g. after a restart or an eviction from the cache.
+		 * </p>
+		 */
+		public long getVersion() {
+			return _version;
+		}
+
+		/**
+		 * The last modification date of {@link #getResource()}.
+		 *
+		 * <p>
+		 * This is the latest modification of the directory, its album index, or a changed image since the directory was
+		 * loaded. For an image, this is the modification date of its album. It serves clients that do not use the
+		 * {@link #getVersion() version}.
+		 * </p>
+		 */
+		public long getLastModified() {
+			return _lastModified;
+		}
+
+		/**
+		 * The UTF-8 encoded JSON serialization of {@link #getResource()}.
+		 *
+		 * <p>
+		 * The serialization is created with the entry. The returned array must not be modified.
+		 * </p>
+		 */
+		public byte[] getJson() {
+			return _json;
+		}
+
+		/**
+		 * The gzip compressed variant of {@link #getJson()}.
+		 *
+		 * <p>
+		 * The compressed data is created on first access and kept until the entry is invalidated. The returned array
+		 * must not be modified.
+		 * </p>
+		 */
+		public byte[] getJsonGzip() {
+			byte[] result = _jsonGzip;
+			if (result == null) {
+				result = gzip(getJson());
+				_jsonGzip = result;
+			}
+			return result;
+		}
+
+		private static byte[] encodeJson(Resource resource) {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			try (JsonWriter json = new JsonWriter(new WriterAdapter(new OutputStreamWriter(buffer, StandardCharsets.UTF_8)))) {
+				resource.writeTo(json);
+			} catch (IOException ex) {
+				throw new UncheckedIOException("Cannot serialize resource.", ex);
+			}
+			return buffer.toByteArray();
+		}
+
+		private static byte[] gzip(byte[] data) {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream(data.length / 4 + 64);
+			try (GZIPOutputStream out = new GZIPOutputStream(buffer)) {
+				out.write(data);
+			} catch (IOException ex) {
+				throw new UncheckedIOException("Cannot compress resource.", ex);
+			}
+			return buffer.toByteArray();
+		}
+
+	}
+
+	static final class Loader extends CacheLoader<PathInfo, Entry> {
 		private static final FileFilter DIRECTORIES = f -> f.isDirectory() && !f.getName().startsWith(".");
 
 		private static final Logger LOG = Logger.getLogger(ResourceCache.class.getName());
 
+		/**
+		 * Milliseconds to wait for further changes after a change has been reported for a directory.
+		 */
+		private static final long SETTLE_TIME = 200;
+
+		/**
+		 * Number of threads applying changes of watched directories.
+		 */
+		private static final int UPDATE_THREADS = 2;
+
 		private final WatchService _watcher;
+
+		/**
+		 * Applies changes reported by the {@link #_watcher}, so that the watcher thread only dispatches events.
+		 */
+		private final ScheduledExecutorService _updater = Executors.newScheduledThreadPool(UPDATE_THREADS, task -> {
+			Thread thread = new Thread(task, "resource-updater");
+			thread.setDaemon(true);
+			return thread;
+		});
 		
-		private final Map<WatchKey, PathInfo> _watchedDirs = new HashMap<>();
+		private final ConcurrentMap<WatchKey, PathInfo> _watchedDirs = new ConcurrentHashMap<>();
+
+		/**
+		 * The total weight of all entries created for the cache.
+		 *
+		 * <p>
+		 * Each entry is added, when it is loaded or created to replace a patched one. The cache reports each of them to
+		 * {@link #removed(Entry)} exactly once, also a loaded entry that is discarded because its path has been
+		 * invalidated in the meantime.
+		 * </p>
+		 */
+		private final AtomicLong _weight = new AtomicLong();
+		
+		private volatile AlbumListener _albumListener;
+
+		private volatile List<Integer> _previewHeights = toList(Settings.PREVIEW_HEIGHTS);
+
+		private volatile PreviewLookup _previews = PreviewLookup.NONE;
+
+		private volatile File _indexDir;
+
+		/**
+		 * Whether the current thread loads without informing the {@link AlbumListener}.
+		 */
+		private final ThreadLocal<Boolean> _quiet = new ThreadLocal<>();
 		
 		/** 
 		 * Creates a {@link ResourceCache.Loader}.
@@ -119,31 +570,281 @@ public class ResourceCache {
 			_watcher = FileSystems.getDefault().newWatchService();
 		}
 
+		/**
+		 * @see ResourceCache#setAlbumListener(AlbumListener)
+		 */
+		public void setAlbumListener(AlbumListener listener) {
+			_albumListener = listener;
+		}
+
+		/**
+		 * @see ResourceCache#setPreviewHeights(int[])
+		 */
+		public void setPreviewHeights(int[] heights) {
+			_previewHeights = toList(heights);
+		}
+
+		/**
+		 * @see ResourceCache#setPreviewLookup(PreviewLookup)
+		 */
+		public void setPreviewLookup(PreviewLookup previews) {
+			_previews = previews;
+		}
+
+		/**
+		 * @see ResourceCache#setIndexDirectory(File)
+		 */
+		public void setIndexDirectory(File indexDir) {
+			_indexDir = indexDir;
+		}
+
+		private MetadataIndex loadIndex(File dir) {
+			return MetadataIndex.load(dir, _indexDir, _previews);
+		}
+
+		private static List<Integer> toList(int[] heights) {
+			return Collections.unmodifiableList(Arrays.stream(heights).boxed().collect(Collectors.toList()));
+		}
+
+		/**
+		 * @see ResourceCache#getWeight()
+		 */
+		long getWeight() {
+			return _weight.get();
+		}
+
+		/**
+		 * Called when the given entry has been removed from the cache.
+		 */
+		void removed(Entry entry) {
+			_weight.addAndGet(-entry.getWeight());
+		}
+
+		void loadQuietly(Runnable load) {
+			_quiet.set(Boolean.TRUE);
+			try {
+				load.run();
+			} finally {
+				_quiet.remove();
+			}
+		}
+
+		private AlbumListener albumListener() {
+			return _quiet.get() == null ? _albumListener : null;
+		}
+
+		/**
+		 * Informs the {@link AlbumListener} about the given album entry, if this has not happened before and the
+		 * current thread is not {@link #loadQuietly(Runnable) loading quietly}.
+		 */
+		void announce(PathInfo path, Entry entry) {
+			AlbumListener listener = albumListener();
+			if (listener != null && entry.getResource() instanceof AlbumInfo && entry.markAnnounced()) {
+				listener.onAlbumLoaded(path, (AlbumInfo) entry.getResource());
+			}
+		}
+
 		@Override
-		public Resource load(PathInfo pathInfo) {
+		public Entry load(PathInfo pathInfo) {
 			if (pathInfo.isDirectory()) {
+				// Watch before reading, so that no change is missed.
+				WatchKey key = watch(pathInfo);
+				long lastModified = lastModified(pathInfo.toFile());
 				Resource result = loadDir(pathInfo);
-				return result;
+				Entry entry = new Entry(result, lastModified, key);
+				_weight.addAndGet(entry.getWeight());
+				announce(pathInfo, entry);
+				return entry;
 			} else {
 				throw new UnsupportedOperationException("Not a directory: " + pathInfo);
 			}
 		}
-		
-		public void processEvents(LoadingCache<PathInfo, Resource> cache) {
-			while (true) {
-				WatchKey key = _watcher.poll();
-				if (key == null) {
-					break;
+
+		/**
+		 * The latest modification of the given directory or its album index.
+		 */
+		private static long lastModified(File dir) {
+			return Math.max(dir.lastModified(), new File(dir, "index.json").lastModified());
+		}
+
+		private WatchKey watch(PathInfo path) {
+			File dir = path.toFile();
+			try {
+				WatchKey key = dir.toPath().register(_watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+				_watchedDirs.put(key, path);
+				return key;
+			} catch (IOException | ClosedWatchServiceException ex) {
+				LOG.log(Level.WARNING, "Cannot register directory watcher on '" + dir + "'.", ex);
+				return null;
+			}
+		}
+
+		/**
+		 * Starts the thread dispatching changes of watched directories to updates of the given cache.
+		 */
+		void startWatcher(Cache<PathInfo, Entry> cache) {
+			Thread thread = new Thread(() -> processEvents(cache), "resource-watcher");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		/**
+		 * Stops the watcher thread.
+		 */
+		void close() throws IOException {
+			_watcher.close();
+			_updater.shutdownNow();
+		}
+
+		private void processEvents(Cache<PathInfo, Entry> cache) {
+			try {
+				while (true) {
+					WatchKey key = _watcher.take();
+
+					// Let a burst of changes, e.g. from an upload, accumulate to be handled at once. The key is not
+					// signaled again before it is reset by the update.
+					_updater.schedule(() -> update(cache, key), SETTLE_TIME, TimeUnit.MILLISECONDS);
+				}
+			} catch (InterruptedException | ClosedWatchServiceException | RejectedExecutionException ex) {
+				// Shutting down.
+			}
+		}
+
+		/**
+		 * Applies the changes reported for the given key to its cached directory.
+		 */
+		private void update(Cache<PathInfo, Entry> cache, WatchKey key) {
+			List<WatchEvent<?>> events = key.pollEvents();
+
+			PathInfo path = _watchedDirs.get(key);
+			if (path == null) {
+				key.cancel();
+				return;
+			}
+
+			File dir = path.toFile();
+			for (WatchEvent<?> event : events) {
+				if (event.context() instanceof Path) {
+					_previews.invalidate(new File(dir, event.context().toString()));
 				}
-				if (!key.isValid()) {
+			}
+
+			boolean patched;
+			try {
+				patched = patch(cache, path, events);
+			} catch (RuntimeException ex) {
+				LOG.log(Level.WARNING, "Cannot update album '" + dir + "'.", ex);
+				patched = false;
+			}
+			if (!patched || !key.reset()) {
+				// The directory is watched again, when it is reloaded.
+				key.cancel();
+				_watchedDirs.remove(key);
+				cache.invalidate(path);
+			}
+		}
+
+		/**
+		 * Applies changes of image files to the cached album of the given directory.
+		 *
+		 * <p>
+		 * Only created and modified images are analyzed. The cached album is not modified, since it may be in use, but
+		 * replaced with a patched copy.
+		 * </p>
+		 *
+		 * @return Whether the cached entry is up to date, <code>false</code> if the changes require to load the
+		 *         directory again.
+		 */
+		private boolean patch(Cache<PathInfo, Entry> cache, PathInfo path, List<WatchEvent<?>> events) {
+			Set<String> changed = new LinkedHashSet<>();
+			for (WatchEvent<?> event : events) {
+				if (event.kind() == OVERFLOW) {
+					return false;
+				}
+				String name = event.context().toString();
+				if (name.startsWith(".")) {
+					// Preview caches and temporary files.
 					continue;
 				}
-				
-				PathInfo path = _watchedDirs.remove(key);
-				if (path != null) {
-					cache.invalidate(path);
+				if (!ACCEPTED.contains(Util.suffix(name))) {
+					// The album index or sub-folders.
+					return false;
 				}
-				key.cancel();
+				changed.add(name);
+			}
+			if (changed.isEmpty()) {
+				return true;
+			}
+
+			Entry entry = cache.getIfPresent(path);
+			if (entry == null || !(entry.getResource() instanceof AlbumInfo)) {
+				return false;
+			}
+			AlbumInfo album = copy(entry);
+
+			File dir = path.toFile();
+			long lastModified = Math.max(entry.getLastModified(), lastModified(dir));
+			MetadataIndex index = loadIndex(dir);
+			List<ImageData> newImages = new ArrayList<>();
+			for (String name : changed) {
+				File file = new File(dir, name);
+				ImagePart existing = album.getImageByName().get(name);
+				lastModified = Math.max(lastModified, file.lastModified());
+				if (!file.exists()) {
+					if (existing != null) {
+						if (existing.getGroup() != null) {
+							return false;
+						}
+						album.getParts().remove(existing);
+					}
+					continue;
+				}
+
+				ImageData image;
+				try {
+					image = index.analyze(album, file);
+				} catch (IOException | ImageProcessingException | MetadataException ex) {
+					// Possibly still being written, a later event follows.
+					LOG.log(Level.FINE, "Cannot access '" + file + "': " + ex.getMessage(), ex);
+					continue;
+				}
+				if (existing == null) {
+					newImages.add(image);
+				} else {
+					// Keep the position and settings from the album index.
+					existing.setKind(image.getKind());
+					existing.setDate(image.getDate());
+					existing.setWidth(image.getWidth());
+					existing.setHeight(image.getHeight());
+					existing.setBlurHash(image.getBlurHash());
+					existing.setColor(image.getColor());
+					existing.setThumbnail(image.isThumbnail());
+				}
+			}
+			index.save();
+			UpdateTransient.updateTransient(album);
+			AlbumUtil.insertSorted(album, newImages);
+
+			Entry patched = new Entry(album, lastModified, entry._watchKey);
+			_weight.addAndGet(patched.getWeight());
+			if (!cache.asMap().replace(path, entry, patched)) {
+				_weight.addAndGet(-patched.getWeight());
+				return false;
+			}
+			LOG.log(Level.FINE, "Updated " + changed.size() + " images in '" + dir + "'.");
+
+			announce(path, patched);
+			return true;
+		}
+
+		private static AlbumInfo copy(Entry entry) {
+			try {
+				AlbumInfo result = (AlbumInfo) Resource.readResource(new JsonReader(new ReaderAdapter(
+					new InputStreamReader(new ByteArrayInputStream(entry.getJson()), StandardCharsets.UTF_8))));
+				UpdateTransient.updateTransient(result);
+				return result;
+			} catch (IOException ex) {
+				throw new UncheckedIOException("Cannot copy album.", ex);
 			}
 		}
 
@@ -156,18 +857,13 @@ public class ResourceCache {
 			if (images == null) {
 				return ErrorInfo.create().setMessage("Cannot list folder.");
 			}
-			
-			try {
-				WatchKey key = dir.toPath().register(_watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
-				_watchedDirs.put(key, path);
-			} catch (IOException ex) {
-				LOG.log(Level.WARNING, "Cannot register directory watcher on '" + dir + "'.", ex);
-			}
 		
 			if (resource instanceof AlbumInfo || images.length > 0) {
 				AlbumInfo album = resource == null ? createGenericAlbumInfo(path) : (AlbumInfo) resource;
 				
-				return loadAlbum(album, images);
+				AlbumInfo result = loadAlbum(dir, album, images);
+				result.setPreviewHeights(_previewHeights);
+				return result;
 			} else {
 				ListingInfo listing = resource == null ? createGenericListingInfo(path) : (ListingInfo) resource;
 
@@ -191,7 +887,7 @@ public class ResourceCache {
 			return resource;
 		}
 		
-		private static Resource loadListing(PathInfo pathInfo, ListingInfo listing) {
+		private Resource loadListing(PathInfo pathInfo, ListingInfo listing) {
 			File dir = pathInfo.toFile();
 			
 			File[] dirs = dir.listFiles(DIRECTORIES);
@@ -209,7 +905,7 @@ public class ResourceCache {
 			return listing;
 		}
 
-		private static FolderInfo loadFolderInfo(File folder) {
+		private FolderInfo loadFolderInfo(File folder) {
 			String folderName = folder.getName();
 
 			FolderInfo folderInfo = FolderInfo.create();
@@ -240,7 +936,9 @@ public class ResourceCache {
 					
 					double scale;
 					try {
-						imageData = ImageData.analyze(null, indexPicture);
+						MetadataIndex index = loadIndex(folder);
+						imageData = index.analyze(null, indexPicture);
+						index.save();
 						
 						double width = imageData.getWidth();
 						double height = imageData.getHeight();
@@ -330,23 +1028,27 @@ public class ResourceCache {
 			return Character.toUpperCase(expanded.charAt(0)) + expanded.substring(1);
 		}
 
-		private static AlbumInfo loadAlbum(AlbumInfo album, File[] files) {
+		private AlbumInfo loadAlbum(File dir, AlbumInfo album, File[] files) {
 			// Update early to be able to match new images against existing image.
 			UpdateTransient.updateTransient(album);
 			
+			MetadataIndex index = loadIndex(dir);
+			Set<String> names = new HashSet<>();
 			List<ImageData> newImages = new ArrayList<>();
 			for (File file : files) {
 				String name = file.getName();
+				names.add(name);
 				
 				ImagePart existing = album.getImageByName().get(name);
 				if (existing != null) {
-					// Already known.
+					// Already known, but possibly described before placeholders and thumbnails were recorded.
+					index.updatePlaceholder(existing, file);
 					continue;
 				}
 				
 				ImageData image;
 				try {
-					image = ImageData.analyze(album, file);
+					image = index.analyze(album, file);
 				} catch (IOException | ImageProcessingException | MetadataException ex) {
 					LOG.log(Level.WARNING, "Cannot access '" + file + "': " + ex.getMessage(), ex);
 					continue;
@@ -357,6 +1059,8 @@ public class ResourceCache {
 			
 			AlbumUtil.insertSorted(album, newImages);
 			
+			index.retain(names);
+			index.save();
 			return album;
 		}
 
@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2026 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package de.haumacher.imageServer.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.util.concurrent.RateLimiter;
+
+import de.haumacher.imageServer.PathInfo;
+
+/**
+ * Background walk over all folders of the library loading them into the {@link ResourceCache}.
+ *
+ * <p>
+ * Folders are loaded in parallel, most recently modified folders first: All folders found so far wait in a single
+ * queue ordered by modification time, the sub-folders of a folder are added when it has been loaded. The crawl stops
+ * descending when the cache has no more room for preloaded folders. The rate of loaded folders can be limited, so
+ * that the crawl does not saturate the storage while requests are served. A folder reached a second time through a
+ * symbolic link is not loaded again, so that a link to a parent folder does not make the crawl endless.
+ * </p>
+ *
+ * <p>
+ * The crawl uses a thread pool with a priority queue instead of a fork-join pool: The per-thread work-stealing deques
+ * of a fork-join pool only order the sub-folders of a single folder, they cannot load the most recent folders of the
+ * whole library first.
+ * </p>
+ *
+ * <p>
+ * Crawled albums are loaded {@link ResourceCache#preload(PathInfo) quietly}, the
+ * {@link ResourceCache.AlbumListener} is only informed when an album is first requested. Otherwise, the crawl would
+ * start generating previews for the whole library. A preloaded album must still be announced, since the listener
+ * pre-generates the previews of requested albums.
+ * </p>
+ */
+public class ResourceCrawler {
+
+	private static final Logger LOG = Logger.getLogger(ResourceCrawler.class.getName());
+
+	/**
+	 * Number of loaded folders after which progress is logged.
+	 */
+	private static final int PROGRESS_INTERVAL = 100;
+
+	private final ResourceCache _cache;
+
+	private final PathInfo _root;
+
+	private final int _parallelism;
+
+	private final RateLimiter _rate;
+
+	private final AtomicBoolean _running = new AtomicBoolean();
+
+	private final AtomicInteger _loaded = new AtomicInteger();
+
+	private final AtomicInteger _failed = new AtomicInteger();
+
+	/**
+	 * Number of folders queued or being loaded in the current crawl.
+	 */
+	private final AtomicInteger _pending = new AtomicInteger();
+
+	/**
+	 * Real paths of all folders queued in the current crawl.
+	 */
+	private final Set<Path> _visited = ConcurrentHashMap.newKeySet();
+
+	private ThreadPoolExecutor _executor;
+
+	private CountDownLatch _done;
+
+	private volatile boolean _budgetExceeded;
+
+	private long _start;
+
+	/**
+	 * Creates a {@link ResourceCrawler}.
+	 *
+	 * @param cache
+	 *        The cache to fill.
+	 * @param basePath
+	 *        The root folder of the library.
+	 * @param parallelism
+	 *        The number of folders loaded concurrently.
+	 * @param foldersPerSecond
+	 *        The maximum number of folders loaded per second, <code>0</code> for no limit.
+	 */
+	public ResourceCrawler(ResourceCache cache, File basePath, int parallelism, double foldersPerSecond) {
+		_cache = cache;
+		_root = new PathInfo(basePath.toPath());
+		_parallelism = Math.max(1, parallelism);
+		_rate = foldersPerSecond > 0 ? RateLimiter.create(foldersPerSecond) : null;
+	}
+
+	/**
+	 * Starts a crawl in the background.
+	 *
+	 * @return Whether a crawl has been started, <code>false</code> if a crawl is already running.
+	 */
+	public boolean start() {
+		if (!_running.compareAndSet(false, true)) {
+			return false;
+		}
+		Thread thread = new Thread(this::crawl, "resource-crawler");
+		thread.setDaemon(true);
+		thread.start();
+		return true;
+	}
+
+	/**
+	 * Whether a crawl is running.
+	 */
+	public boolean isRunning() {
+		return _running.get();
+	}
+
+	/**
+	 * The number of folders loaded by the current or last crawl.
+	 */
+	public int getLoadedCount() {
+		return _loaded.get();
+	}
+
+	private void crawl() {
+		_loaded.set(0);
+		_failed.set(0);
+		_budgetExceeded = false;
+		_visited.clear();
+		_start = System.nanoTime();
+		LOG.info("Crawling '" + _root.toFile() + "' with " + _parallelism + " threads.");
+
+		AtomicInteger threads = new AtomicInteger();
+		_executor = new ThreadPoolExecutor(_parallelism, _parallelism, 0, TimeUnit.SECONDS,
+			new PriorityBlockingQueue<>(), task -> newThread(task, threads.getAndIncrement()));
+		_done = new CountDownLatch(1);
+		try {
+			submit(_root, _root.toFile().lastModified());
+			_done.await();
+		} catch (InterruptedException ex) {
+			LOG.warning("Crawl of '" + _root.toFile() + "' interrupted.");
+		} finally {
+			_executor.shutdownNow();
+			_visited.clear();
+			_running.set(false);
+		}
+
+		LOG.info("Crawl completed: " + _loaded.get() + " folders loaded in " + seconds() + " s, " + _failed.get()
+			+ " failed" + (_budgetExceeded ? ", stopped at cache capacity." : "."));
+	}
+
+	private static Thread newThread(Runnable task, int index) {
+		Thread thread = new Thread(task, "resource-crawler-" + index);
+		thread.setDaemon(true);
+
+		// Requests should win over background work.
+		thread.setPriority(Thread.MIN_PRIORITY);
+		return thread;
+	}
+
+	private long seconds() {
+		return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - _start);
+	}
+
+	private void loaded() {
+		int loaded = _loaded.incrementAndGet();
+		if (loaded % PROGRESS_INTERVAL == 0) {
+			LOG.info("Crawl: " + loaded + " folders loaded in " + seconds() + " s.");
+		}
+	}
+
+	private void submit(PathInfo path, long lastModified) {
+		if (!visit(path)) {
+			return;
+		}
+		_pending.incrementAndGet();
+		_executor.execute(new Crawl(path, lastModified));
+	}
+
+	/**
+	 * Records the given folder as visited.
+	 *
+	 * @return Whether the folder has not been visited before, neither directly nor through a symbolic link.
+	 */
+	private boolean visit(PathInfo path) {
+		try {
+			return _visited.add(path.toFile().toPath().toRealPath());
+		} catch (IOException ex) {
+			_failed.incrementAndGet();
+			LOG.log(Level.WARNING, "Cannot resolve '" + path.toFile() + "': " + ex.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Loads a folder and queues its sub-folders.
+	 */
+	private final class Crawl implements Runnable, Comparable<Crawl> {
+
+		private final PathInfo _path;
+
+		private final long _lastModified;
+
+		Crawl(PathInfo path, long lastModified) {
+			_path = path;
+			_lastModified = lastModified;
+		}
+
+		@Override
+		public int compareTo(Crawl other) {
+			// Most recently modified first.
+			return Long.compare(other._lastModified, _lastModified);
+		}
+
+		@Override
+		public void run() {
+			try {
+				crawl();
+			} catch (RuntimeException ex) {
+				LOG.log(Level.WARNING, "Crawl of '" + _path.toFile() + "' failed.", ex);
+			} finally {
+				if (_pending.decrementAndGet() == 0) {
+					_done.countDown();
+				}
+			}
+		}
+
+		private void crawl() {
+			if (!_cache.hasPreloadCapacity()) {
+				_budgetExceeded = true;
+				return;
+			}
+			if (_rate != null) {
+				_rate.acquire();
+			}
+
+			// Modification times are taken before loading, which may write indexes to the sub-folders.
+			File[] dirs = _path.toFile().listFiles(f -> f.isDirectory() && !f.getName().startsWith("."));
+			long[] lastModified = new long[dirs == null ? 0 : dirs.length];
+			for (int n = 0; n < lastModified.length; n++) {
+				lastModified[n] = dirs[n].lastModified();
+			}
+
+			try {
+				_cache.preload(_path);
+				loaded();
+			} catch (RuntimeException ex) {
+				_failed.incrementAndGet();
+				LOG.log(Level.WARNING, "Cannot load '" + _path.toFile() + "'.", ex);
+			}
+
+			for (int n = 0; n < lastModified.length; n++) {
+				submit(_path.child(dirs[n].getName()), lastModified[n]);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2026 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package de.haumacher.imageServer.cache;
+
+import java.util.List;
+
+import de.haumacher.imageServer.shared.model.AlbumInfo;
+import de.haumacher.imageServer.shared.model.AlbumPart;
+import de.haumacher.imageServer.shared.model.FolderInfo;
+import de.haumacher.imageServer.shared.model.Heading;
+import de.haumacher.imageServer.shared.model.ImageGroup;
+import de.haumacher.imageServer.shared.model.ImagePart;
+import de.haumacher.imageServer.shared.model.ListingInfo;
+import de.haumacher.imageServer.shared.model.Resource;
+import de.haumacher.imageServer.shared.model.ThumbnailInfo;
+
+/**
+ * Estimate of the heap memory retained by a {@link Resource} in the {@link ResourceCache}.
+ *
+ * <p>
+ * The estimate counts the model objects with their strings and the JSON serializations an entry keeps once it has
+ * been delivered. It is meant to make a large album weigh proportionally more than a small one, not to be exact.
+ * </p>
+ */
+final class ResourceSize {
+
+	/**
+	 * Header, fields and list slot of a small model object.
+	 */
+	private static final int OBJECT_SIZE = 64;
+
+	/**
+	 * An {@link ImagePart} with its fields, transient links and its entry in the name index of the album.
+	 */
+	private static final int IMAGE_SIZE = 200;
+
+	/**
+	 * Plain and compressed JSON serialization of an image, in addition to its strings.
+	 */
+	private static final int IMAGE_JSON_SIZE = 250;
+
+	/**
+	 * Header and fields of a string, in addition to its characters.
+	 */
+	private static final int STRING_SIZE = 40;
+
+	private ResourceSize() {
+		// Static utility.
+	}
+
+	/**
+	 * The estimated number of bytes retained by the given resource.
+	 */
+	static long estimate(Resource resource) {
+		if (resource instanceof AlbumInfo) {
+			AlbumInfo album = (AlbumInfo) resource;
+			return OBJECT_SIZE + string(album.getTitle()) + string(album.getSubTitle())
+				+ thumbnail(album.getIndexPicture()) + parts(album.getParts());
+		}
+		if (resource instanceof ListingInfo) {
+			ListingInfo listing = (ListingInfo) resource;
+			long result = OBJECT_SIZE + string(listing.getTitle());
+			for (FolderInfo folder : listing.getFolders()) {
+				// Strings are contained twice, in the model and in the JSON serialization.
+				result += 2 * (OBJECT_SIZE + string(folder.getName()) + string(folder.getTitle())
+					+ string(folder.getSubTitle()) + thumbnail(folder.getIndexPicture()));
+			}
+			return result;
+		}
+		return OBJECT_SIZE;
+	}
+
+	private static long parts(List<? extends AlbumPart> parts) {
+		long result = 0;
+		for (AlbumPart part : parts) {
+			if (part instanceof ImagePart) {
+				ImagePart image = (ImagePart) part;
+				long strings = string(image.getName()) + string(image.getComment()) + string(image.getBlurHash())
+					+ string(image.getColor());
+				result += IMAGE_SIZE + IMAGE_JSON_SIZE + 2 * strings;
+			} else if (part instanceof ImageGroup) {
+				result += OBJECT_SIZE + parts(((ImageGroup) part).getImages());
+			} else if (part instanceof Heading) {
+				result += OBJECT_SIZE + 2 * string(((Heading) part).getText());
+			} else {
+				result += OBJECT_SIZE;
+			}
+		}
+		return result;
+	}
+
+	private static long thumbnail(ThumbnailInfo thumbnail) {
+		return thumbnail == null ? 0 : OBJECT_SIZE + string(thumbnail.getImage());
+	}
+
+	private static long string(String value) {
+		return value == null ? 0 : STRING_SIZE + 2 * value.length();
+	}
+
+}
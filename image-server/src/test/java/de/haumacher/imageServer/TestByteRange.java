@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2026 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package de.haumacher.imageServer;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+/**
+ * Test case for {@link ByteRange}.
+ */
+@SuppressWarnings("javadoc")
+public class TestByteRange extends TestCase {
+
+	public void testNoRange() {
+		assertNull(ByteRange.parse(null, 100));
+		assertNull(ByteRange.parse("items=0-10", 100));
+	}
+
+	public void testSingleRange() {
+		assertEquals(Arrays.asList(new ByteRange(0, 9)), ByteRange.parse("bytes=0-9", 100));
+		assertEquals(Arrays.asList(new ByteRange(50, 99)), ByteRange.parse("bytes=50-", 100));
+		assertEquals(Arrays.asList(new ByteRange(90, 99)), ByteRange.parse("bytes=-10", 100));
+		assertEquals(Arrays.asList(new ByteRange(0, 99)), ByteRange.parse("bytes=-1000", 100));
+		assertEquals(Arrays.asList(new ByteRange(90, 99)), ByteRange.parse("bytes=90-1000", 100));
+	}
+
+	public void testMultiRange() {
+		assertEquals(Arrays.asList(new ByteRange(0, 9), new ByteRange(20, 29)), ByteRange.parse("bytes=20-29, 0-9", 100));
+	}
+
+	public void testCoalesce() {
+		assertEquals(Arrays.asList(new ByteRange(0, 29)), ByteRange.parse("bytes=0-9,10-19,5-29", 100));
+	}
+
+	public void testUnsatisfiable() {
+		assertEquals(Collections.emptyList(), ByteRange.parse("bytes=100-", 100));
+		assertEquals(Collections.emptyList(), ByteRange.parse("bytes=-0", 100));
+		assertEquals(Collections.emptyList(), ByteRange.parse("bytes=0-", 0));
+	}
+
+	public void testInvalid() {
+		assertNull(ByteRange.parse("bytes=10-5", 100));
+		assertNull(ByteRange.parse("bytes=a-5", 100));
+		assertNull(ByteRange.parse("bytes=5", 100));
+		assertNull(ByteRange.parse("bytes=--5", 100));
+	}
+
+	public void testContentRange() {
+		assertEquals("bytes 0-9/100", new ByteRange(0, 9).contentRange(100));
+	}
+
+}
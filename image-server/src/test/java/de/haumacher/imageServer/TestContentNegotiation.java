@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2026 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package de.haumacher.imageServer;
+
+import junit.framework.TestCase;
+
+/**
+ * Test case for {@link ContentNegotiation}.
+ */
+@SuppressWarnings("javadoc")
+public class TestContentNegotiation extends TestCase {
+
+	public void testEncoding() {
+		assertTrue(ContentNegotiation.accepts("gzip, deflate, br", "gzip"));
+		assertTrue(ContentNegotiation.accepts("deflate, GZIP;q=0.5", "gzip"));
+		assertFalse(ContentNegotiation.accepts("deflate, br", "gzip"));
+		assertFalse(ContentNegotiation.accepts("gzip;q=0", "gzip"));
+		assertFalse(ContentNegotiation.accepts(null, "gzip"));
+	}
+
+	public void testWildcard() {
+		assertTrue(ContentNegotiation.accepts("*", "gzip"));
+		assertFalse(ContentNegotiation.accepts("*, gzip;q=0", "gzip"));
+		assertTrue(ContentNegotiation.accepts("*;q=0, gzip", "gzip"));
+	}
+
+	public void testMediaType() {
+		assertTrue(ContentNegotiation.accepts("image/avif,image/webp,*/*;q=0.8", "image/webp"));
+		assertTrue(ContentNegotiation.accepts("image/*", "image/webp"));
+		assertFalse(ContentNegotiation.accepts("image/png,image/*;q=0", "image/webp"));
+		assertEquals(0.8, ContentNegotiation.quality("image/png, */*; q=0.8", "image/webp"), 0.0);
+		assertFalse(ContentNegotiation.accepts("text/html", "image/webp"));
+	}
+
+	public void testPrefers() {
+		// Chrome and Firefox image requests.
+		assertTrue(ContentNegotiation.prefers("image/avif,image/webp,image/apng,image/svg+xml,image/*,*/*;q=0.8",
+			"image/webp", "image/jpeg"));
+		assertTrue(ContentNegotiation.prefers("image/avif,image/webp,*/*", "image/webp", "image/jpeg"));
+
+		// Equal preference, the smaller format wins.
+		assertTrue(ContentNegotiation.prefers("*/*", "image/webp", "image/jpeg"));
+
+		// Clients preferring JPEG or sending no Accept header.
+		assertFalse(ContentNegotiation.prefers("image/jpeg,image/webp;q=0.5", "image/webp", "image/jpeg"));
+		assertFalse(ContentNegotiation.prefers("image/jpeg", "image/webp", "image/jpeg"));
+		assertFalse(ContentNegotiation.prefers(null, "image/webp", "image/jpeg"));
+	}
+
+}
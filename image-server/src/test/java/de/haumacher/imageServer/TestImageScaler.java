@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2026 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package de.haumacher.imageServer;
+
+import java.awt.image.BufferedImage;
+
+import de.haumacher.imageServer.shared.model.Orientation;
+import junit.framework.TestCase;
+
+/**
+ * Test case for {@link ImageScaler}.
+ */
+@SuppressWarnings("javadoc")
+public class TestImageScaler extends TestCase {
+
+	/**
+	 * Raw image with 3 columns and 2 rows:
+	 * 
+	 * <pre>
+	 * 1 2 3
+	 * 4 5 6
+	 * </pre>
+	 */
+	private static BufferedImage raw(int type) {
+		BufferedImage result = new BufferedImage(3, 2, type);
+		int value = 1;
+		for (int y = 0; y < 2; y++) {
+			for (int x = 0; x < 3; x++) {
+				result.setRGB(x, y, 0xFF000000 | value++);
+			}
+		}
+		return result;
+	}
+
+	public void testOrientation() {
+		for (int type : new int[] { BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_USHORT_565_RGB }) {
+			assertPixels(raw(type), Orientation.IDENTITY, 3, 2, 1, 2, 3, 4, 5, 6);
+			assertPixels(raw(type), Orientation.FLIP_H, 3, 2, 3, 2, 1, 6, 5, 4);
+			assertPixels(raw(type), Orientation.ROT_180, 3, 2, 6, 5, 4, 3, 2, 1);
+			assertPixels(raw(type), Orientation.FLIP_V, 3, 2, 4, 5, 6, 1, 2, 3);
+			assertPixels(raw(type), Orientation.ROT_L_FLIP_V, 2, 3, 1, 4, 2, 5, 3, 6);
+			assertPixels(raw(type), Orientation.ROT_L, 2, 3, 4, 1, 5, 2, 6, 3);
+			assertPixels(raw(type), Orientation.ROT_L_FLIP_H, 2, 3, 6, 3, 5, 2, 4, 1);
+			assertPixels(raw(type), Orientation.ROT_R, 2, 3, 3, 6, 2, 5, 1, 4);
+		}
+	}
+
+	private static void assertPixels(BufferedImage src, Orientation orientation, int width, int height, int... expected) {
+		BufferedImage result = ImageScaler.scale(src, orientation, width, height);
+		assertEquals(width, result.getWidth());
+		assertEquals(height, result.getHeight());
+		int n = 0;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int blue = result.getRGB(x, y) & 0xFF;
+				if (src.getType() == BufferedImage.TYPE_USHORT_565_RGB) {
+					// Blue has only 5 bits precision.
+					assertTrue(orientation + " at " + x + "/" + y, Math.abs(expected[n++] - blue) <= 4);
+				} else {
+					assertEquals(orientation + " at " + x + "/" + y, expected[n++], blue);
+				}
+			}
+		}
+	}
+
+	public void testAreaAverage() {
+		BufferedImage src = new BufferedImage(4, 4, BufferedImage.TYPE_3BYTE_BGR);
+		for (int y = 0; y < 4; y++) {
+			for (int x = 0; x < 4; x++) {
+				src.setRGB(x, y, (x + y) % 2 == 0 ? 0xFFFFFF : 0x000000);
+			}
+		}
+		BufferedImage result = ImageScaler.scale(src, Orientation.IDENTITY, 2, 2);
+		for (int y = 0; y < 2; y++) {
+			for (int x = 0; x < 2; x++) {
+				assertEquals(0x808080, result.getRGB(x, y) & 0xFFFFFF);
+			}
+		}
+	}
+
+	public void testFractionalCoverage() {
+		BufferedImage src = new BufferedImage(3, 1, BufferedImage.TYPE_INT_RGB);
+		src.setRGB(0, 0, 0x000000);
+		src.setRGB(1, 0, 0x000000);
+		src.setRGB(2, 0, 0x0000F0);
+		BufferedImage result = ImageScaler.scale(src, Orientation.IDENTITY, 2, 1);
+		
+		// Left target pixel covers source pixel 0 and half of pixel 1, right one the other half of 1 and pixel 2.
+		assertEquals(0x00, result.getRGB(0, 0) & 0xFF);
+		assertEquals(0xA0, result.getRGB(1, 0) & 0xFF);
+	}
+
+	public void testAlpha() {
+		BufferedImage src = new BufferedImage(2, 1, BufferedImage.TYPE_4BYTE_ABGR);
+		src.setRGB(0, 0, 0xFFFF0000);
+		src.setRGB(1, 0, 0x0000FF00);
+		BufferedImage result = ImageScaler.scale(src, Orientation.IDENTITY, 1, 1);
+		
+		// The transparent pixel must not contribute its color.
+		assertEquals(0x80FF0000, result.getRGB(0, 0));
+	}
+
+}
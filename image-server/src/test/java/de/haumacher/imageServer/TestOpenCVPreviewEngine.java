@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2026 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package de.haumacher.imageServer;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import javax.imageio.ImageIO;
+
+import de.haumacher.imageServer.shared.model.Orientation;
+import de.haumacher.imageServer.shared.util.Orientations;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Test case for {@link OpenCVPreviewEngine} comparing its previews with those of the {@link Java2DPreviewEngine}.
+ *
+ * <p>
+ * The tests are skipped, if OpenCV is not available on this platform.
+ * </p>
+ */
+@SuppressWarnings("javadoc")
+public class TestOpenCVPreviewEngine extends TestCase {
+
+	private static final int WIDTH = 64;
+
+	private static final int HEIGHT = 48;
+
+	/**
+	 * Colors of the top left, top right, bottom left and bottom right quadrant of the raw test image.
+	 */
+	private static final int[] QUADRANTS = { 0xFF0000, 0x00FF00, 0x0000FF, 0xFFFFFF };
+
+	private PreviewEngine _engine;
+
+	private File _dir;
+
+	private File _image;
+
+	public static Test suite() {
+		if (!isAvailable()) {
+			return new TestSuite(TestOpenCVPreviewEngine.class.getName() + " (skipped, OpenCV not available)");
+		}
+		return new TestSuite(TestOpenCVPreviewEngine.class);
+	}
+
+	private static boolean isAvailable() {
+		try {
+			new OpenCVPreviewEngine(Java2DPreviewEngine.INSTANCE);
+			return true;
+		} catch (LinkageError | RuntimeException ex) {
+			return false;
+		}
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		_engine = new OpenCVPreviewEngine(Java2DPreviewEngine.INSTANCE);
+
+		_dir = File.createTempFile("opencv-engine", "");
+		_dir.delete();
+		_dir.mkdir();
+
+		BufferedImage raw = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				raw.setRGB(x, y, QUADRANTS[(y < HEIGHT / 2 ? 0 : 2) + (x < WIDTH / 2 ? 0 : 1)]);
+			}
+		}
+		_image = new File(_dir, "raw.jpg");
+		ImageIO.write(raw, "jpg", _image);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		for (File file : _dir.listFiles()) {
+			file.delete();
+		}
+		_dir.delete();
+		super.tearDown();
+	}
+
+	public void testSupports() {
+		assertTrue(_engine.supports("jpg"));
+		assertTrue(_engine.supports("png"));
+		assertTrue(_engine.supports("webp"));
+		assertFalse(_engine.supports("gif"));
+		assertFalse(Java2DPreviewEngine.INSTANCE.supports("webp"));
+	}
+
+	public void testOrientation() throws IOException {
+		for (Orientation orientation : Orientation.values()) {
+			assertSameAsJava2D(orientation, 1, 1);
+		}
+	}
+
+	public void testReducedDecoding() throws IOException {
+		for (Orientation orientation : Orientation.values()) {
+			assertSameAsJava2D(orientation, 2, 2);
+			assertSameAsJava2D(orientation, 4, 2);
+		}
+	}
+
+	public void testWebP() throws IOException {
+		File preview = new File(_dir, "preview.webp");
+		_engine.writePreview(_image, preview, "webp", 80, Orientation.IDENTITY, 1, WIDTH / 2, HEIGHT / 2);
+
+		byte[] header = Files.readAllBytes(preview.toPath());
+		assertEquals("RIFF", new String(header, 0, 4, "ISO-8859-1"));
+		assertEquals("WEBP", new String(header, 8, 4, "ISO-8859-1"));
+	}
+
+	/**
+	 * Creates a preview reduced by the given factor with both engines and compares size and the color of each
+	 * quadrant.
+	 */
+	private void assertSameAsJava2D(Orientation orientation, int reduction, int subsampling) throws IOException {
+		int width = Orientations.width(orientation, WIDTH, HEIGHT) / reduction;
+		int height = Orientations.height(orientation, WIDTH, HEIGHT) / reduction;
+
+		BufferedImage expected = preview(Java2DPreviewEngine.INSTANCE, orientation, subsampling, width, height);
+		BufferedImage actual = preview(_engine, orientation, subsampling, width, height);
+
+		String context = orientation + " reduced by " + reduction;
+		assertEquals(context, width, actual.getWidth());
+		assertEquals(context, height, actual.getHeight());
+
+		// Centers of the quadrants in display orientation.
+		for (int qy = 0; qy < 2; qy++) {
+			for (int qx = 0; qx < 2; qx++) {
+				int x = width / 4 + qx * width / 2;
+				int y = height / 4 + qy * height / 2;
+				assertColor(context + " at " + x + "/" + y, expected.getRGB(x, y), actual.getRGB(x, y));
+			}
+		}
+	}
+
+	private BufferedImage preview(PreviewEngine engine, Orientation orientation, int subsampling, int width,
+			int height) throws IOException {
+		File preview = new File(_dir, "preview.jpg");
+		engine.writePreview(_image, preview, "jpg", 90, orientation, subsampling, width, height);
+		return ImageIO.read(preview);
+	}
+
+	private static void assertColor(String message, int expected, int actual) {
+		for (int shift = 0; shift < 24; shift += 8) {
+			int delta = Math.abs(((expected >> shift) & 0xFF) - ((actual >> shift) & 0xFF));
+			assertTrue(message + ": expected " + Integer.toHexString(expected & 0xFFFFFF) + " but was "
+				+ Integer.toHexString(actual & 0xFFFFFF), delta <= 48);
+		}
+	}
+
+}
@@ -3,6 +3,14 @@
  */
 package de.haumacher.imageServer;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import de.haumacher.imageServer.shared.model.Orientation;
 import junit.framework.TestCase;
 
 /**
@@ -11,8 +19,90 @@ import junit.framework.TestCase;
 @SuppressWarnings("javadoc")
 public class TestPreviewCache extends TestCase {
 	
-	public void testUpdateDate() {
-		assertTrue(PreviewCache.lastUpdate() > 0);
+	public void testCurrentVariant() {
+		assertFalse(PreviewCache.isCurrentVariant("h480.jpg"));
+		assertTrue(PreviewCache.isCurrentVariant("h480-v2-java2d.jpg"));
+		assertFalse(PreviewCache.isCurrentVariant("h480-v2-opencv.jpg"));
+		assertTrue(PreviewCache.isCurrentVariant("v2-java2d.png"));
+		assertTrue(PreviewCache.isCurrentVariant("micro.jpg"));
+		assertFalse(PreviewCache.isCurrentVariant("h480-v999.jpg"));
+		assertFalse(PreviewCache.isCurrentVariant("v999.png"));
+		assertFalse(PreviewCache.isCurrentVariant("h480"));
+	}
+	
+	public void testPreviewHeight() {
+		int[] before = PreviewCache.getPreviewHeights();
+		try {
+			PreviewCache.setPreviewHeights(new int[] { 960, 240, 480 });
+			assertEquals(240, PreviewCache.previewHeight(1));
+			assertEquals(240, PreviewCache.previewHeight(240));
+			assertEquals(480, PreviewCache.previewHeight(241));
+			assertEquals(960, PreviewCache.previewHeight(5000));
+		} finally {
+			PreviewCache.setPreviewHeights(before);
+		}
+	}
+
+	public void testWebPRecipe() {
+		assertFalse(Java2DPreviewEngine.INSTANCE.supports(PreviewCache.WEBP));
+		assertEquals("jpg", PreviewCache.recipe(new File("image.jpg"), 480, true).getImageType());
+
+		PreviewEngine before = PreviewCache.getEngine();
+		try {
+			PreviewCache.setEngine(new PreviewEngine() {
+				@Override
+				public boolean supports(String imageType) {
+					return true;
+				}
+
+				@Override
+				public String getName(String imageType) {
+					return "test";
+				}
+
+				@Override
+				public void writePreview(File file, File preview, String imageType, int quality,
+						Orientation orientation, int subsampling, int previewWidth, int previewHeight) {
+					throw new UnsupportedOperationException();
+				}
+			});
+			assertEquals("webp", PreviewCache.recipe(new File("image.jpg"), 480, true).getImageType());
+			assertEquals("webp", PreviewCache.recipe(new File("image.JPEG"), 480, true).getImageType());
+			assertEquals("jpg", PreviewCache.recipe(new File("image.jpg"), 480, false).getImageType());
+
+			// WebP previews are only created for JPEG images.
+			assertEquals("png", PreviewCache.recipe(new File("image.png"), 480, true).getImageType());
+		} finally {
+			PreviewCache.setEngine(before);
+		}
+	}
+
+	public void testRememberFailure() throws IOException, PreviewException {
+		Path dir = Files.createTempDirectory("preview-cache");
+		try {
+			File broken = dir.resolve("broken.jpg").toFile();
+			Files.write(broken.toPath(), new byte[] { 1, 2, 3 });
+
+			// Runs the background generation before the request returns.
+			PreviewCache.setAsyncExecutor(Runnable::run);
+			assertNull(PreviewCache.requestPreview(broken, 480, false));
+			try {
+				PreviewCache.requestPreview(broken, 480, false);
+				fail("Failure not reported.");
+			} catch (PreviewException ex) {
+				// Expected.
+			}
+
+			// A modified original is tried again.
+			Files.write(broken.toPath(), new byte[] { 4, 5, 6 });
+			broken.setLastModified(broken.lastModified() + 2000);
+			assertNull(PreviewCache.requestPreview(broken, 480, false));
+		} finally {
+			PreviewCache.setAsyncExecutor(null);
+			try (Stream<Path> files = Files.walk(dir)) {
+				files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+			}
+		}
 	}
 
 }
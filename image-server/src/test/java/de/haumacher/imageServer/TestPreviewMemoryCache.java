@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2026 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package de.haumacher.imageServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import junit.framework.TestCase;
+
+/**
+ * Test case for {@link PreviewMemoryCache}.
+ */
+@SuppressWarnings("javadoc")
+public class TestPreviewMemoryCache extends TestCase {
+
+	private File _preview;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		_preview = File.createTempFile("preview", ".jpg");
+		Files.write(_preview.toPath(), new byte[] { 1, 2, 3 });
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		_preview.delete();
+		super.tearDown();
+	}
+
+	public void testHit() throws IOException {
+		doTestHit(false);
+		doTestHit(true);
+	}
+
+	private void doTestHit(boolean direct) throws IOException {
+		Files.write(_preview.toPath(), new byte[] { 1, 2, 3 });
+		PreviewMemoryCache cache = new PreviewMemoryCache(1024 * 1024, direct);
+		File key = new File("h480/preview-a.jpg");
+		File original = new File("a.jpg");
+		assertNull(cache.get(key, 1000));
+
+		PreviewData cached = cache.put(key, original, 1000, PreviewData.fromFile(_preview));
+		assertNull(cached.getFile());
+		assertEquals(_preview.lastModified(), cached.getLastModified());
+
+		// The preview is served from memory, even if the file changes.
+		Files.write(_preview.toPath(), new byte[] { 4 });
+		PreviewData hit = cache.get(key, 1000);
+		assertNotNull(hit);
+		ByteBuffer buffer = hit.getBuffer();
+		assertEquals(3, buffer.remaining());
+		assertEquals(1, buffer.get(0));
+		assertEquals(1, cache.getStats().hitCount());
+		assertEquals(1, cache.getStats().missCount());
+	}
+
+	public void testOriginalModified() throws IOException {
+		PreviewMemoryCache cache = new PreviewMemoryCache(1024 * 1024, false);
+		File key = new File("h480/preview-a.jpg");
+		cache.put(key, new File("a.jpg"), 1000, PreviewData.fromFile(_preview));
+
+		assertNull(cache.get(key, 2000));
+		assertNull(cache.get(key, 1000));
+	}
+
+	public void testInvalidate() throws IOException {
+		PreviewMemoryCache cache = new PreviewMemoryCache(1024 * 1024, false);
+		File a = new File("a.jpg");
+		File b = new File("b.jpg");
+		cache.put(new File("h240/preview-a.jpg"), a, 1000, PreviewData.fromFile(_preview));
+		cache.put(new File("h480/preview-a.jpg"), a, 1000, PreviewData.fromFile(_preview));
+		cache.put(new File("h480/preview-b.jpg"), b, 1000, PreviewData.fromFile(_preview));
+
+		cache.invalidate(a);
+		assertNull(cache.get(new File("h240/preview-a.jpg"), 1000));
+		assertNull(cache.get(new File("h480/preview-a.jpg"), 1000));
+		assertNotNull(cache.get(new File("h480/preview-b.jpg"), 1000));
+	}
+
+	public void testInvalidateAfterEviction() throws IOException {
+		PreviewMemoryCache cache = new PreviewMemoryCache(1024 * 1024, false);
+		File a = new File("a.jpg");
+		File key = new File("h480/preview-a.jpg");
+		cache.put(key, a, 1000, PreviewData.fromFile(_preview));
+		assertNull(cache.get(key, 2000));
+
+		cache.put(key, a, 2000, PreviewData.fromFile(_preview));
+		assertNotNull(cache.get(key, 2000));
+		cache.invalidate(a);
+		assertNull(cache.get(key, 2000));
+	}
+
+	public void testBufferNotCopied() throws IOException {
+		PreviewMemoryCache cache = new PreviewMemoryCache(1024 * 1024, false);
+		File key = new File("h480/preview-a.jpg");
+		PreviewData data = PreviewData.fromBuffer("a.jpg", ByteBuffer.wrap(new byte[] { 1, 2, 3 }), 1000);
+		assertSame(data, cache.put(key, new File("a.jpg"), 1000, data));
+		assertNull(cache.get(key, 1000));
+	}
+
+	public void testTooLarge() throws IOException {
+		PreviewMemoryCache cache = new PreviewMemoryCache(64, false);
+		File key = new File("h480/preview-a.jpg");
+		PreviewData data = PreviewData.fromFile(_preview);
+		assertSame(data, cache.put(key, new File("a.jpg"), 1000, data));
+		assertNull(cache.get(key, 1000));
+	}
+
+}
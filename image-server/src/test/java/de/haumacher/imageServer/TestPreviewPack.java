@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2026 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package de.haumacher.imageServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Test case for {@link PreviewPack}.
+ */
+@SuppressWarnings("javadoc")
+public class TestPreviewPack extends TestCase {
+
+	private File _dir;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		_dir = Files.createTempDirectory("preview-pack").toFile();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		for (File file : _dir.listFiles()) {
+			file.delete();
+		}
+		_dir.delete();
+		super.tearDown();
+	}
+
+	public void testAppend() throws IOException {
+		PreviewPack pack = PreviewPack.forDirectory(_dir, name -> true);
+		assertNull(pack.get("a.jpg"));
+		assertEquals(0L, pack.lastModified("a.jpg"));
+
+		pack.append("a.jpg", data(100, 1));
+		pack.append("h480/b.jpg.webp", data(200, 2));
+		pack.append("empty.jpg", data(0, 0));
+
+		assertContents(100, 1, pack.get("a.jpg"));
+		assertContents(200, 2, pack.get("h480/b.jpg.webp"));
+		assertContents(0, 0, pack.get("empty.jpg"));
+		assertEquals("h480/b.jpg.webp", pack.get("h480/b.jpg.webp").getName());
+		assertTrue(pack.lastModified("a.jpg") > 0);
+
+		// Index is rebuilt from the pack file.
+		PreviewPack reopened = reopen();
+		assertContents(100, 1, reopened.get("a.jpg"));
+		assertContents(200, 2, reopened.get("h480/b.jpg.webp"));
+		assertContents(0, 0, reopened.get("empty.jpg"));
+	}
+
+	public void testSupersede() throws IOException {
+		PreviewPack pack = PreviewPack.forDirectory(_dir, name -> true);
+		pack.append("a.jpg", data(100, 1));
+		PreviewData before = pack.get("a.jpg");
+		pack.append("b.jpg", data(100, 2));
+		for (int n = 0; n < 5; n++) {
+			pack.append("a.jpg", data(400 * 1024, 10 + n));
+		}
+
+		// Compacted after the garbage exceeds the live data.
+		File packFile = new File(_dir, PreviewPack.PACK_FILE);
+		assertTrue(packFile.length() < 3 * 400 * 1024);
+		assertContents(400 * 1024, 14, pack.get("a.jpg"));
+		assertContents(100, 2, pack.get("b.jpg"));
+
+		// Slices of the replaced pack file remain valid.
+		assertContents(100, 1, before);
+
+		PreviewPack reopened = reopen();
+		assertContents(400 * 1024, 14, reopened.get("a.jpg"));
+		assertContents(100, 2, reopened.get("b.jpg"));
+	}
+
+	public void testRetryLoad() throws IOException {
+		File packFile = new File(_dir, PreviewPack.PACK_FILE);
+		packFile.mkdir();
+		PreviewPack pack = reopen();
+		try {
+			pack.get("a.jpg");
+			fail("Pack read from a directory.");
+		} catch (IOException ex) {
+			// Expected.
+		}
+
+		// The failed load is not remembered as an empty pack.
+		packFile.delete();
+		reopen().append("a.jpg", data(100, 1));
+		assertContents(100, 1, pack.get("a.jpg"));
+	}
+
+	public void testTruncated() throws IOException {
+		PreviewPack pack = PreviewPack.forDirectory(_dir, name -> true);
+		pack.append("a.jpg", data(100, 1));
+		pack.append("b.jpg", data(100, 2));
+
+		File packFile = new File(_dir, PreviewPack.PACK_FILE);
+		long length = packFile.length();
+		try (RandomAccessFile out = new RandomAccessFile(packFile, "rw")) {
+			out.setLength(length - 10);
+		}
+
+		PreviewPack reopened = reopen();
+		assertContents(100, 1, reopened.get("a.jpg"));
+		assertNull(reopened.get("b.jpg"));
+
+		reopened.append("b.jpg", data(50, 3));
+		assertContents(50, 3, reopen().get("b.jpg"));
+	}
+
+	public void testDropDead() throws IOException {
+		PreviewPack pack = PreviewPack.forDirectory(_dir, name -> !name.startsWith("deleted"));
+		pack.append("a.jpg", data(100, 1));
+		pack.append("deleted.jpg", data(100, 2));
+		for (int n = 0; n < 5; n++) {
+			pack.append("a.jpg", data(400 * 1024, 10 + n));
+		}
+
+		// Compacted after the garbage exceeds the live data.
+		assertContents(400 * 1024, 14, pack.get("a.jpg"));
+		assertNull(pack.get("deleted.jpg"));
+		assertNull(reopen().get("deleted.jpg"));
+	}
+
+	public void testHasOriginal() throws IOException {
+		new File(_dir, "a.jpg").createNewFile();
+		assertTrue(PreviewCache.hasOriginal(_dir, "preview-a.jpg"));
+		assertTrue(PreviewCache.hasOriginal(_dir, "h480-v2/preview-a.jpg.webp"));
+		assertFalse(PreviewCache.hasOriginal(_dir, "preview-b.jpg"));
+		assertFalse(PreviewCache.hasOriginal(_dir, "h480/preview-b.jpg.webp"));
+		assertTrue(PreviewCache.hasOriginal(_dir, "other"));
+	}
+
+	/**
+	 * A new {@link PreviewPack} instance for the test directory, bypassing the instance cache.
+	 */
+	private PreviewPack reopen() {
+		return new PreviewPack(_dir.getAbsoluteFile());
+	}
+
+	private File data(int size, int value) throws IOException {
+		File file = File.createTempFile("data", ".tmp", _dir);
+		byte[] contents = new byte[size];
+		Arrays.fill(contents, (byte) value);
+		Files.write(file.toPath(), contents);
+		return file;
+	}
+
+	private static void assertContents(int size, int value, PreviewData data) throws IOException {
+		assertNotNull(data);
+		assertEquals(size, data.getLength());
+		byte[] expected = new byte[size];
+		Arrays.fill(expected, (byte) value);
+		try (InputStream in = data.open()) {
+			byte[] actual = new byte[size + 1];
+			int cnt = 0;
+			int direct;
+			while ((direct = in.read(actual, cnt, actual.length - cnt)) > 0) {
+				cnt += direct;
+			}
+			assertEquals(size, cnt);
+			assertTrue(Arrays.equals(expected, Arrays.copyOf(actual, size)));
+		}
+	}
+
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2026 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package de.haumacher.imageServer;
+
+import junit.framework.TestCase;
+
+/**
+ * Test case for {@link PreviewRecipe}.
+ */
+@SuppressWarnings("javadoc")
+public class TestPreviewRecipe extends TestCase {
+
+	public void testKey() {
+		PreviewRecipe recipe = PreviewRecipe.preview(480, "webp", "opencv");
+		assertEquals("h480", recipe.getVariant());
+		assertEquals(480, recipe.getHeight());
+		assertTrue(recipe.isCurrent());
+		assertEquals("h480-v2-opencv", recipe.getKey());
+
+		// Version 1 keeps the location of previews created before recipes were versioned.
+		assertEquals("h480", recipe.withVersion(1).getKey());
+		assertEquals("h480-v3-opencv", recipe.withVersion(3).getKey());
+		assertEquals("", PreviewRecipe.preview(0, "jpg", "java2d").withVersion(1).getKey());
+		assertEquals("v3-java2d", PreviewRecipe.preview(0, "jpg", "java2d").withVersion(3).getKey());
+		assertEquals("micro", PreviewRecipe.micro().getKey());
+	}
+
+	public void testIsCurrent() {
+		for (PreviewRecipe recipe : new PreviewRecipe[] { PreviewRecipe.preview(480, "jpg", "java2d"),
+			PreviewRecipe.preview(0, "png", "java2d"), PreviewRecipe.preview(240, "webp", "opencv"),
+			PreviewRecipe.micro() }) {
+			assertTrue(PreviewRecipe.isCurrent(recipe.getKey(), recipe.getImageType(), recipe.getEngine()));
+
+			PreviewRecipe newer = recipe.withVersion(recipe.getVersion() + 1);
+			assertFalse(newer.isCurrent());
+			assertFalse(PreviewRecipe.isCurrent(newer.getKey(), newer.getImageType(), newer.getEngine()));
+		}
+		assertFalse(PreviewRecipe.isCurrent("h480-vx", "jpg", "java2d"));
+	}
+
+	public void testEngine() {
+		// Previews of the first version and of another engine are outdated.
+		assertFalse(PreviewRecipe.isCurrent("h480", "jpg", "java2d"));
+		assertFalse(PreviewRecipe.isCurrent("", "jpg", "java2d"));
+		assertTrue(PreviewRecipe.isCurrent("h480-v2-java2d", "jpg", "java2d"));
+		assertFalse(PreviewRecipe.isCurrent("h480-v2-java2d", "jpg", "opencv"));
+		assertTrue(PreviewRecipe.isCurrent("v2-opencv", "jpg", "opencv"));
+		assertFalse(PreviewRecipe.isCurrent("v2", "jpg", "opencv"));
+	}
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2026 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package de.haumacher.imageServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import junit.framework.TestCase;
+
+/**
+ * Test case for {@link PreviewStore}.
+ */
+@SuppressWarnings("javadoc")
+public class TestPreviewStore extends TestCase {
+
+	private File _tmp;
+
+	private File _album;
+
+	private File _storeDir;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		_tmp = Files.createTempDirectory("preview-store").toFile();
+		_album = new File(_tmp, "album");
+		_album.mkdir();
+		_storeDir = new File(_tmp, "store");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		delete(_tmp);
+		super.tearDown();
+	}
+
+	public void testEntryIdentity() throws IOException {
+		PreviewStore store = new PreviewStore(_storeDir, 0, variant -> true);
+		File original = original("a.jpg", 10);
+
+		File entry = store.entry(original, "h480", "jpg");
+		assertEquals(entry, store.entry(original, "h480", "jpg"));
+		assertTrue(entry.getName().endsWith(".jpg"));
+		assertFalse(entry.equals(store.entry(original, "h240", "jpg")));
+		assertFalse(entry.equals(store.entry(original, "h480", "webp")));
+
+		original.setLastModified(original.lastModified() - 10000);
+		assertFalse(entry.equals(store.entry(original, "h480", "jpg")));
+	}
+
+	public void testEviction() throws IOException, InterruptedException {
+		PreviewStore store = new PreviewStore(_storeDir, 250, variant -> true);
+		File a = add(store, original("a.jpg", 1), 100);
+		Thread.sleep(5);
+		File b = add(store, original("b.jpg", 1), 100);
+		Thread.sleep(5);
+		store.accessed(a);
+		File c = add(store, original("c.jpg", 1), 100);
+
+		assertEquals(200, store.getSize());
+		assertTrue(a.exists());
+		assertFalse(b.exists());
+		assertTrue(c.exists());
+	}
+
+	public void testGarbageCollection() throws IOException {
+		PreviewStore store = new PreviewStore(_storeDir, 0, variant -> true);
+		File deleted = original("a.jpg", 1);
+		File modified = original("b.jpg", 1);
+		File kept = original("c.jpg", 1);
+		File a = add(store, deleted, 10);
+		File b = add(store, modified, 10);
+		File c = add(store, kept, 10);
+
+		deleted.delete();
+		modified.setLastModified(modified.lastModified() - 10000);
+
+		// Entries are recovered after a restart.
+		store = new PreviewStore(_storeDir, 0, variant -> true);
+		assertEquals(3, store.getEntryCount());
+		assertEquals(2, store.collectGarbage());
+		assertFalse(a.exists());
+		assertFalse(b.exists());
+		assertTrue(c.exists());
+		assertEquals(10, store.getSize());
+
+		// Entries of outdated recipes are removed.
+		store = new PreviewStore(_storeDir, 0, variant -> !variant.equals("h480.jpg"));
+		assertEquals(1, store.collectGarbage());
+		assertEquals(0, store.getEntryCount());
+	}
+
+	private File original(String name, int size) throws IOException {
+		File file = new File(_album, name);
+		Files.write(file.toPath(), new byte[size]);
+		return file;
+	}
+
+	private static File add(PreviewStore store, File original, int size) throws IOException {
+		File entry = store.entry(original, "h480", "jpg");
+		entry.getParentFile().mkdirs();
+		Files.write(entry.toPath(), new byte[size]);
+		store.stored(original, "h480", entry);
+		return entry;
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2026 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package de.haumacher.imageServer.cache;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import de.haumacher.imageServer.shared.model.ImagePart;
+
+import junit.framework.TestCase;
+
+/**
+ * Test case for {@link ImageData}.
+ */
+@SuppressWarnings("javadoc")
+public class TestImageData extends TestCase {
+
+	public void testPlaceholderFromPreview() throws IOException {
+		BufferedImage preview = new BufferedImage(90, 60, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < 60; y++) {
+			for (int x = 0; x < 90; x++) {
+				preview.setRGB(x, y, 0x336699);
+			}
+		}
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		ImageIO.write(preview, "png", buffer);
+
+		ImagePart part = ImagePart.create();
+		ImageData.updatePlaceholderFromPreview(part, new File("image.jpg"),
+			file -> new ByteArrayInputStream(buffer.toByteArray()));
+		assertFalse(part.getBlurHash().isEmpty());
+		assertEquals("#336699", part.getColor());
+	}
+
+	public void testNoPreview() {
+		ImagePart part = ImagePart.create();
+		ImageData.updatePlaceholderFromPreview(part, new File("image.jpg"), PreviewLookup.NONE);
+		assertEquals("", part.getBlurHash());
+	}
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2026 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package de.haumacher.imageServer.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import com.drew.imaging.ImageProcessingException;
+import com.drew.metadata.MetadataException;
+
+import de.haumacher.imageServer.shared.model.ImageKind;
+import de.haumacher.imageServer.shared.model.ImagePart;
+
+import junit.framework.TestCase;
+
+/**
+ * Test case for {@link MetadataIndex}.
+ */
+@SuppressWarnings("javadoc")
+public class TestMetadataIndex extends TestCase {
+
+	private static final File IMAGE = new File("src/test/fixtures/test-album/2005-08-24 Blumen und Fliegen/IMG_0415.JPG");
+
+	private File _dir;
+
+	private File _image;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		_dir = Files.createTempDirectory("metadata-index").toFile();
+		_image = new File(_dir, IMAGE.getName());
+		Files.copy(IMAGE.toPath(), _image.toPath());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		File cacheDir = new File(_dir, ".vacache");
+		File[] files = cacheDir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+			cacheDir.delete();
+		}
+		_image.delete();
+		_dir.delete();
+		super.tearDown();
+	}
+
+	public void testPersistence() throws ImageProcessingException, IOException, MetadataException {
+		MetadataIndex index = MetadataIndex.load(_dir, PreviewLookup.NONE);
+		assertEquals(0, index.size());
+		ImageData analyzed = index.analyze(null, _image);
+		index.save();
+
+		// Replace contents without changing size and modification time, the index must not read the file.
+		long lastModified = _image.lastModified();
+		Files.write(_image.toPath(), new byte[(int) _image.length()]);
+		_image.setLastModified(lastModified);
+
+		MetadataIndex reloaded = MetadataIndex.load(_dir, PreviewLookup.NONE);
+		assertEquals(1, reloaded.size());
+		ImageData cached = reloaded.analyze(null, _image);
+		assertEquals(analyzed.getKind(), cached.getKind());
+		assertEquals(analyzed.getWidth(), cached.getWidth());
+		assertEquals(analyzed.getHeight(), cached.getHeight());
+		assertEquals(analyzed.getDate(), cached.getDate());
+		assertEquals(analyzed.getComment(), cached.getComment());
+		assertEquals(analyzed.getBlurHash(), cached.getBlurHash());
+		assertEquals(analyzed.getColor(), cached.getColor());
+		assertEquals(analyzed.isThumbnail(), cached.isThumbnail());
+		assertEquals(_image.getName(), cached.getName());
+	}
+
+	public void testIndexDirectory() throws ImageProcessingException, IOException, MetadataException {
+		File indexDir = Files.createTempDirectory("metadata-index-dir").toFile();
+		try {
+			MetadataIndex index = MetadataIndex.load(_dir, indexDir, PreviewLookup.NONE);
+			index.analyze(null, _image);
+			index.save();
+
+			// The album is not modified.
+			assertFalse(new File(_dir, ".vacache").exists());
+			assertEquals(1, indexDir.listFiles().length);
+			assertEquals(1, MetadataIndex.load(_dir, indexDir, PreviewLookup.NONE).size());
+			assertEquals(0, MetadataIndex.load(_dir, PreviewLookup.NONE).size());
+		} finally {
+			for (File file : indexDir.listFiles()) {
+				file.delete();
+			}
+			indexDir.delete();
+		}
+	}
+
+	public void testNoThumbnail() throws ImageProcessingException, IOException, MetadataException {
+		// The fixture has no embedded thumbnail, clients must not request a micro preview.
+		assertFalse(MetadataIndex.load(_dir, PreviewLookup.NONE).analyze(null, _image).isThumbnail());
+	}
+
+	public void testOutdated() throws ImageProcessingException, IOException, MetadataException {
+		MetadataIndex index = MetadataIndex.load(_dir, PreviewLookup.NONE);
+		index.analyze(null, _image);
+		index.save();
+
+		// A modified file is analyzed again.
+		Files.write(_image.toPath(), new byte[] { 1, 2, 3 });
+		try {
+			MetadataIndex.load(_dir, PreviewLookup.NONE).analyze(null, _image);
+			fail("Invalid image analyzed.");
+		} catch (ImageProcessingException | IOException | RuntimeException ex) {
+			// Expected.
+		}
+	}
+
+	public void testUpdatePlaceholder() throws ImageProcessingException, IOException, MetadataException {
+		// A description edited in the album must not be indexed as metadata of the file.
+		ImagePart edited = ImagePart.create().setKind(ImageKind.IMAGE).setName(_image.getName()).setDate(42)
+			.setComment("Edited");
+		MetadataIndex index = MetadataIndex.load(_dir, PreviewLookup.NONE);
+		index.updatePlaceholder(edited, _image);
+		index.save();
+		assertEquals(42, edited.getDate());
+		assertEquals("Edited", edited.getComment());
+
+		MetadataIndex reloaded = MetadataIndex.load(_dir, PreviewLookup.NONE);
+		assertEquals(1, reloaded.size());
+		ImageData cached = reloaded.analyze(null, _image);
+		ImageData analyzed = ImageData.analyze(null, _image, PreviewLookup.NONE);
+		assertEquals(analyzed.getDate(), cached.getDate());
+		assertEquals(analyzed.getComment(), cached.getComment());
+	}
+
+	public void testRetain() throws ImageProcessingException, IOException, MetadataException {
+		MetadataIndex index = MetadataIndex.load(_dir, PreviewLookup.NONE);
+		index.analyze(null, _image);
+		index.retain(Collections.singleton("other.jpg"));
+		index.save();
+		assertEquals(0, MetadataIndex.load(_dir, PreviewLookup.NONE).size());
+	}
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2026 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package de.haumacher.imageServer.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import de.haumacher.imageServer.PathInfo;
+import de.haumacher.imageServer.shared.model.AlbumInfo;
+import de.haumacher.imageServer.shared.model.ImagePart;
+
+import junit.framework.TestCase;
+
+/**
+ * Test case for {@link ResourceCache}.
+ */
+@SuppressWarnings("javadoc")
+public class TestResourceCache extends TestCase {
+
+	private static final File FIXTURES = new File("src/test/fixtures/test-album");
+
+	private static final String ALBUM = "2005-08-24 Blumen und Fliegen";
+
+	private File _library;
+
+	private ResourceCache _cache;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		_library = Files.createTempDirectory("resource-cache").toFile();
+		copy(FIXTURES.toPath(), _library.toPath());
+		_cache = new ResourceCache();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		_cache.close();
+		delete(_library.toPath());
+		super.tearDown();
+	}
+
+	public void testImageEntry() {
+		PathInfo album = new PathInfo(_library.toPath()).child(ALBUM);
+		ResourceCache.Entry albumEntry = _cache.lookupEntry(album);
+		assertTrue(albumEntry.getResource() instanceof AlbumInfo);
+
+		ResourceCache.Entry image = _cache.lookupEntry(album.child("IMG_0415.JPG"));
+		assertEquals("IMG_0415.JPG", ((ImagePart) image.getResource()).getName());
+		assertSame(image, _cache.lookupEntry(album.child("IMG_0415.JPG")));
+		assertNull(_cache.lookupEntry(album.child("missing.jpg")));
+	}
+
+	public void testVersionFromContent() throws IOException {
+		PathInfo album = new PathInfo(_library.toPath()).child(ALBUM);
+		ResourceCache.Entry entry = _cache.lookupEntry(album);
+		_cache.close();
+
+		// A reload of unchanged contents results in the same version.
+		_cache = new ResourceCache();
+		ResourceCache.Entry reloaded = _cache.lookupEntry(album);
+		assertNotSame(entry, reloaded);
+		assertEquals(entry.getVersion(), reloaded.getVersion());
+	}
+
+	public void testWeight() throws IOException, InterruptedException {
+		PathInfo root = new PathInfo(_library.toPath());
+		PathInfo album = root.child(ALBUM);
+		ResourceCache.Entry entry = _cache.lookupEntry(album);
+		ResourceCache.Entry generated = _cache.lookupEntry(root.child("generated"));
+		assertTrue(entry.getWeight() > 0);
+		assertEquals(entry.getWeight() + generated.getWeight(), _cache.getWeight());
+
+		// The replaced entry of a patched album no longer counts.
+		File dir = album.toFile();
+		Files.copy(new File(dir, "IMG_0415.JPG").toPath(), new File(dir, "copy.jpg").toPath());
+		ResourceCache.Entry patched = entry;
+		for (int n = 0; n < 50 && patched == entry; n++) {
+			Thread.sleep(100);
+			patched = _cache.lookupEntry(album);
+		}
+		assertNotSame(entry, patched);
+		assertEquals(patched.getWeight() + generated.getWeight(), _cache.getWeight());
+	}
+
+	static void copy(Path source, Path target) throws IOException {
+		try (Stream<Path> files = Files.walk(source)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				Path copy = target.resolve(source.relativize(file).toString());
+				if (Files.isDirectory(file)) {
+					Files.createDirectories(copy);
+				} else {
+					Files.copy(file, copy);
+				}
+			}
+		}
+	}
+
+	static void delete(Path dir) throws IOException {
+		try (Stream<Path> files = Files.walk(dir)) {
+			files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+		}
+	}
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2026 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package de.haumacher.imageServer.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import de.haumacher.imageServer.PathInfo;
+
+import junit.framework.TestCase;
+
+/**
+ * Test case for {@link ResourceCrawler}.
+ */
+@SuppressWarnings("javadoc")
+public class TestResourceCrawler extends TestCase {
+
+	private static final File FIXTURES = new File("src/test/fixtures/test-album");
+
+	private static final String ALBUM = "2005-08-24 Blumen und Fliegen";
+
+	private static final String PARK = "2002-03-03 Schlosspark Karlsruhe";
+
+	private static final String GENERATED = "generated";
+
+	private File _library;
+
+	private ResourceCache _cache;
+
+	private final List<String> _preloaded = Collections.synchronizedList(new ArrayList<>());
+
+	private final List<String> _announced = Collections.synchronizedList(new ArrayList<>());
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		_library = Files.createTempDirectory("resource-crawler").toFile();
+		TestResourceCache.copy(FIXTURES.toPath(), _library.toPath());
+
+		// A recent folder with an old sub-folder.
+		File recent = new File(_library, "recent");
+		File old = new File(recent, "old");
+		old.mkdirs();
+
+		long now = System.currentTimeMillis();
+		old.setLastModified(now - 3000000);
+		new File(_library, GENERATED).setLastModified(now - 2000000);
+		new File(_library, PARK).setLastModified(now - 1500000);
+		new File(_library, ALBUM).setLastModified(now - 1000000);
+		recent.setLastModified(now);
+
+		_cache = new ResourceCache() {
+			@Override
+			public void preload(PathInfo path) {
+				_preloaded.add(path.toFile().getName());
+				super.preload(path);
+			}
+		};
+		_cache.setAlbumListener((path, album) -> _announced.add(path.toFile().getName()));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		_cache.close();
+		TestResourceCache.delete(_library.toPath());
+		super.tearDown();
+	}
+
+	public void testMostRecentFirst() throws InterruptedException {
+		crawl(1);
+
+		// All queued folders are ordered by modification time, not only siblings.
+		assertEquals(Arrays.asList(_library.getName(), "recent", ALBUM, PARK, GENERATED, "old"), _preloaded);
+	}
+
+	public void testParallel() throws InterruptedException {
+		ResourceCrawler crawler = crawl(4);
+		assertEquals(6, crawler.getLoadedCount());
+		assertEquals(6, _cache.getSize());
+	}
+
+	public void testSymlinkLoop() throws IOException, InterruptedException {
+		File recent = new File(_library, "recent");
+		Files.createSymbolicLink(new File(recent, "loop").toPath(), _library.toPath());
+		Files.createSymbolicLink(new File(_library, "link").toPath(), recent.toPath());
+
+		// Folders reached again through a link are not loaded twice.
+		ResourceCrawler crawler = crawl(2);
+		assertEquals(6, crawler.getLoadedCount());
+	}
+
+	public void testAnnounceCrawled() throws InterruptedException {
+		crawl(2);
+		assertEquals(Collections.emptyList(), _announced);
+
+		// The listener learns about a crawled album, when it is requested.
+		PathInfo album = new PathInfo(_library.toPath()).child(ALBUM);
+		_cache.lookup(album);
+		_cache.lookup(album);
+		assertEquals(Arrays.asList(ALBUM), _announced);
+	}
+
+	private ResourceCrawler crawl(int parallelism) throws InterruptedException {
+		ResourceCrawler crawler = new ResourceCrawler(_cache, _library, parallelism, 0);
+		assertTrue(crawler.start());
+		for (int n = 0; n < 300 && crawler.isRunning(); n++) {
+			Thread.sleep(100);
+		}
+		assertFalse(crawler.isRunning());
+		return crawler;
+	}
+
+}
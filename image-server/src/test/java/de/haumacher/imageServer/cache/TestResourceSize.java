@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2026 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package de.haumacher.imageServer.cache;
+
+import de.haumacher.imageServer.shared.model.AlbumInfo;
+import de.haumacher.imageServer.shared.model.ImagePart;
+
+import junit.framework.TestCase;
+
+/**
+ * Test case for {@link ResourceSize}.
+ */
+@SuppressWarnings("javadoc")
+public class TestResourceSize extends TestCase {
+
+	public void testProportional() {
+		long empty = ResourceSize.estimate(album(0));
+		long small = ResourceSize.estimate(album(10));
+		long large = ResourceSize.estimate(album(1000));
+
+		assertTrue(empty > 0);
+		assertTrue(small > empty);
+		assertEquals(100.0, (double) (large - empty) / (small - empty), 0.1);
+	}
+
+	private static AlbumInfo album(int images) {
+		AlbumInfo result = AlbumInfo.create().setTitle("Album");
+		for (int n = 0; n < images; n++) {
+			result.addPart(ImagePart.create().setName("IMG_" + (1000 + n) + ".JPG"));
+		}
+		return result;
+	}
+
+}
@@ -44,6 +44,8 @@ public interface HTML {
 	String SRC_ATTR = "src";
 	String WIDTH_ATTR = "width";
 	String HEIGHT_ATTR = "height";
+	String SRCSET_ATTR = "srcset";
+	String SIZES_ATTR = "sizes";
 	String INPUT = "input";
 	String I = "i";
 	String A = "a";